@@ -18,19 +18,32 @@
 package com.asprise.ocr;
 
 import com.asprise.ocr.sample.FrameOcrSample;
+import com.asprise.ocr.util.BlankPageFilter;
+import com.asprise.ocr.util.DecodedPageCache;
+import com.asprise.ocr.util.ImageFormats;
+import com.asprise.ocr.util.ImageHandoffEncoder;
+import com.asprise.ocr.util.ImageNormalizer;
 import com.asprise.ocr.util.OcrLibHelper;
+import com.asprise.ocr.util.OcrResultMerger;
 import com.asprise.ocr.util.StringUtils;
+import com.asprise.ocr.util.TempFileArena;
+import com.asprise.ocr.util.UrlPrefetcher;
 import com.asprise.ocr.util.Utils;
 
-import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -560,6 +573,9 @@ public class Ocr {
      *     <li>GIF</li>
      * </ul>
      * </p>
+     * <p>Remote files are downloaded in parallel by {@linkplain UrlPrefetcher#getDefault()}; <code>file:</code> URLs are
+     * read in place. For plain text and xml output, each input is recognized as soon as it is downloaded and the results
+     * are merged.</p>
      * @param sources input image files - can be local files or files on remote server
      * @param recognizeType valid values: {@linkplain #RECOGNIZE_TYPE_TEXT}, {@linkplain #RECOGNIZE_TYPE_BARCODE} or {@linkplain #RECOGNIZE_TYPE_ALL}.
      * @param outputFormat valid values: {@linkplain #OUTPUT_FORMAT_PLAINTEXT}, {@linkplain #OUTPUT_FORMAT_XML}, {@linkplain #OUTPUT_FORMAT_PDF} or {@linkplain #OUTPUT_FORMAT_RTF}.
@@ -567,28 +583,27 @@ public class Ocr {
      * @return the recognition output in the specified format or <pre>null</pre> if there is no input file.
      */
     public String recognize(URL[] sources, String recognizeType, String outputFormat, Object... propSpec) {
-        File tmpDir= Utils.getTempFolderWritable();
-        if(tmpDir == null) {
-            throw new OcrException("Unable to find temporary dir");
-        }
-
-        List<File> files = new ArrayList<File>();
-        for(int i = 0; sources != null && i < sources.length; i++) {
-            File tmpFile = new File(tmpDir, "" + System.currentTimeMillis() + "-" + StringUtils.randomAlphanumeric(3));
-            try {
-                Utils.saveToFile(sources[i], tmpFile);
-            } catch (Throwable e) {
-                throw new OcrException(e);
+        List<UrlPrefetcher.Prefetch> prefetches = UrlPrefetcher.getDefault().prefetch(sources);
+        try {
+            if(prefetches.size() > 1 && OcrResultMerger.canMerge(outputFormat)) {
+                // recognizes each input as soon as it is fetched while the others are still downloading
+                List<String> results = new ArrayList<String>();
+                for(UrlPrefetcher.Prefetch prefetch : prefetches) {
+                    results.add(recognize(new File[] {prefetch.getFile()}, recognizeType, outputFormat, propSpec));
+                }
+                return OcrResultMerger.merge(results, outputFormat);
             }
-            files.add(tmpFile);
-        }
-
-        String s = recognize(files.toArray(new File[0]), recognizeType, outputFormat, propSpec);
 
-        for(File file : files) {
-            file.delete();
+            List<File> files = new ArrayList<File>();
+            for(UrlPrefetcher.Prefetch prefetch : prefetches) {
+                files.add(prefetch.getFile());
+            }
+            return recognize(files.toArray(new File[0]), recognizeType, outputFormat, propSpec);
+        } finally {
+            for(UrlPrefetcher.Prefetch prefetch : prefetches) {
+                prefetch.release();
+            }
         }
-        return s;
     }
 
     /**
@@ -628,25 +643,271 @@ public class Ocr {
      * @return the recognition output in the specified format or <pre>null</pre> if there is no input file.
      */
     public String recognize(RenderedImage img, String recognizeType, String outputFormat, Object... propSpec) {
+        return recognizeImage(img, 0, true, recognizeType, outputFormat, propSpec);
+    }
+
+    /**
+     * Performs text/barcode recognition on the given image of the given resolution, which is used by the
+     * {@linkplain #setImageNormalizer(ImageNormalizer) image normalizer}, e.g., to downscale the image to a target DPI.
+     * Coordinates in xml output are those of the given image. See {@linkplain #recognize(RenderedImage, String, String, Object...)}.
+     * @param dpi resolution of the image or 0 if unknown
+     */
+    public String recognize(RenderedImage img, int dpi, String recognizeType, String outputFormat, Object... propSpec) {
+        return recognizeImage(img, dpi, true, recognizeType, outputFormat, propSpec);
+    }
+
+    /**
+     * Recognizes the given image; wholePage is false if the image is a part of a page, e.g., a region or a tile, which
+     * is never skipped as blank nor resized by the normalizer.
+     */
+    String recognizeImage(RenderedImage img, int dpi, boolean wholePage, String recognizeType, String outputFormat, Object... propSpec) {
         if(img == null) {
             throw new IllegalArgumentException("img is null");
         }
+        BlankPageFilter filter = blankPageFilter;
+        if(filter != null) {
+            String skipped = filter.skipIfBlank(img, wholePage, outputFormat);
+            if(skipped != null) {
+                return skipped;
+            }
+        }
+        ImageNormalizer normalizer = imageNormalizer;
+        if(normalizer != null) {
+            RenderedImage normalized = normalizer.normalize(img, dpi, wholePage);
+            String s = handOver(normalized, recognizeType, outputFormat, propSpec);
+            return toSourceCoordinates(s, outputFormat, img.getWidth(), img.getHeight(), normalized);
+        }
+        return handOver(img, recognizeType, outputFormat, propSpec);
+    }
+
+    /**
+     * Scales the coordinates in an xml result of the recognized image, which may have been resized by the normalizer,
+     * back to the source image of the given size.
+     */
+    static String toSourceCoordinates(String s, String outputFormat, int sourceWidth, int sourceHeight, RenderedImage recognized) {
+        if(!OUTPUT_FORMAT_XML.equals(outputFormat) || (recognized.getWidth() == sourceWidth && recognized.getHeight() == sourceHeight)) {
+            return s;
+        }
+        return OcrResultMerger.scaleXml(s, (double) sourceWidth / recognized.getWidth(), (double) sourceHeight / recognized.getHeight());
+    }
 
+    /** Hands the image over to the engine as is. */
+    String handOver(RenderedImage img, String recognizeType, String outputFormat, Object... propSpec) {
+        TempFileArena arena = TempFileArena.getDefault();
         File fileImageTmp = null;
         try {
-            fileImageTmp = File.createTempFile("ocr", ".png");
-            ImageIO.write(img, "png", fileImageTmp);
-        } catch (Throwable t) {
-            throw new RuntimeException("Failed to save image to " + fileImageTmp, t);
+            try {
+                fileImageTmp = arena.createTempFile(ImageHandoffEncoder.getSuffix(img), ImageHandoffEncoder.estimateSize(img));
+                ImageHandoffEncoder.write(img, fileImageTmp);
+                arena.track(fileImageTmp);
+            } catch (Throwable t) {
+                throw new RuntimeException("Failed to save image to " + fileImageTmp, t);
+            }
+
+            // the image went through the blank page filter already, possibly as a region or tile
+            String s = recognizeFiles(fileImageTmp.getAbsolutePath(), -1, -1, -1, -1, -1, recognizeType, outputFormat, propSpec);
+            return s;
+        } finally {
+            arena.delete(fileImageTmp);
+        }
+    }
+
+    /**
+     * Performs text/barcode recognition on the given encoded image or document with the specified output format.
+     * JPEG, PNG, TIFF, PDF, BMP, GIF and PNM data is handed over to the engine as is; other formats readable by ImageIO
+     * are decoded first.
+     * @param data encoded image, e.g., the content of a JPEG file
+     * @param recognizeType valid values: {@linkplain #RECOGNIZE_TYPE_TEXT}, {@linkplain #RECOGNIZE_TYPE_BARCODE} or {@linkplain #RECOGNIZE_TYPE_ALL}.
+     * @param outputFormat valid values: {@linkplain #OUTPUT_FORMAT_PLAINTEXT}, {@linkplain #OUTPUT_FORMAT_XML}, {@linkplain #OUTPUT_FORMAT_PDF} or {@linkplain #OUTPUT_FORMAT_RTF}
+     * @param propSpec additional properties, can be a single {@linkplain java.util.Properties} object or inline specification in pairs or a single string. Valid property names are defined in this class, etc.
+     * @return the recognition output in the specified format.
+     */
+    public String recognize(byte[] data, String recognizeType, String outputFormat, Object... propSpec) {
+        if(data == null) {
+            throw new IllegalArgumentException("data is null");
+        }
+        return recognize(ByteBuffer.wrap(data), recognizeType, outputFormat, propSpec);
+    }
+
+    /**
+     * Performs text/barcode recognition on the remaining bytes of the given buffer; its position is not changed.
+     * See {@linkplain #recognize(byte[], String, String, Object...)}.
+     */
+    public String recognize(ByteBuffer data, String recognizeType, String outputFormat, Object... propSpec) {
+        if(data == null) {
+            throw new IllegalArgumentException("data is null");
+        }
+        ByteBuffer content = data.duplicate();
+        byte[] head = new byte[Math.min(ImageFormats.MAGIC_LENGTH, content.remaining())];
+        content.duplicate().get(head);
+        String ext = ImageFormats.detectExtension(head, head.length);
+        if(ext == null) {
+            int[] dpi = new int[1];
+            if(content.hasArray()) {
+                RenderedImage img = decode(new ByteArrayInputStream(content.array(), content.arrayOffset() + content.position(), content.remaining()), dpi);
+                return recognize(img, dpi[0], recognizeType, outputFormat, propSpec);
+            }
+            byte[] bytes = new byte[content.remaining()];
+            content.get(bytes);
+            RenderedImage img = decode(new ByteArrayInputStream(bytes), dpi);
+            return recognize(img, dpi[0], recognizeType, outputFormat, propSpec);
+        }
+
+        TempFileArena arena = TempFileArena.getDefault();
+        File file = null;
+        try {
+            file = arena.createTempFile("." + ext, content.remaining());
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                FileChannel channel = out.getChannel();
+                while(content.hasRemaining()) {
+                    channel.write(content);
+                }
+            } finally {
+                out.close();
+            }
+            arena.track(file);
+            return recognize(file.getAbsolutePath(), -1, -1, -1, -1, -1, recognizeType, outputFormat, propSpec);
+        } catch (IOException e) {
+            throw new OcrException("Failed to save input to " + file, e);
+        } finally {
+            arena.delete(file);
         }
+    }
 
-        String s = recognize(fileImageTmp.getAbsolutePath(), -1, -1, -1, -1, -1, recognizeType, outputFormat, propSpec);
+    /**
+     * Performs text/barcode recognition on the encoded image or document read from the given stream, which is read to
+     * its end but not closed. See {@linkplain #recognize(byte[], String, String, Object...)}.
+     */
+    public String recognize(InputStream in, String recognizeType, String outputFormat, Object... propSpec) {
+        if(in == null) {
+            throw new IllegalArgumentException("in is null");
+        }
+        TempFileArena arena = TempFileArena.getDefault();
+        File file = null;
+        try {
+            BufferedInputStream input = new BufferedInputStream(in);
+            input.mark(ImageFormats.MAGIC_LENGTH);
+            byte[] head = new byte[ImageFormats.MAGIC_LENGTH];
+            int length = 0;
+            int n;
+            while(length < head.length && (n = input.read(head, length, head.length - length)) > 0) {
+                length += n;
+            }
+            input.reset();
+            String ext = ImageFormats.detectExtension(head, length);
+            if(ext == null) {
+                int[] dpi = new int[1];
+                RenderedImage img = decode(input, dpi);
+                return recognize(img, dpi[0], recognizeType, outputFormat, propSpec);
+            }
+
+            file = arena.copyToTempFile(input, "." + ext); // the length is unknown: reserved as it is copied
+            return recognize(file.getAbsolutePath(), -1, -1, -1, -1, -1, recognizeType, outputFormat, propSpec);
+        } catch (IOException e) {
+            throw new OcrException("Failed to save input to " + file, e);
+        } finally {
+            arena.delete(file);
+        }
+    }
+
+    /**
+     * Performs text/barcode recognition on a region of a page, cropping it on the Java side from a page decoded once
+     * and kept in the given cache. Much faster than {@linkplain #recognize(String, int, int, int, int, int, String, String, Object...)}
+     * when many regions (e.g., form fields) are read from the same page as the engine does not decode the whole page
+     * for each region. Coordinates in xml output are relative to the page as with the native region recognition.
+     * Falls back to the native region recognition for inputs ImageIO can not read, e.g., PDF.
+     * @param file input image file
+     * @param pageIndex the page (first page is 1)
+     * @param startX the starting x coordinate of the region
+     * @param startY the starting y coordinate of the region
+     * @param width the width of the region
+     * @param height the height of the region
+     * @param cache cache of decoded pages, typically shared by all engines reading the same documents
+     * @param recognizeType valid values: {@linkplain #RECOGNIZE_TYPE_TEXT}, {@linkplain #RECOGNIZE_TYPE_BARCODE} or {@linkplain #RECOGNIZE_TYPE_ALL}.
+     * @param outputFormat valid values: {@linkplain #OUTPUT_FORMAT_PLAINTEXT}, {@linkplain #OUTPUT_FORMAT_XML}, {@linkplain #OUTPUT_FORMAT_PDF} or {@linkplain #OUTPUT_FORMAT_RTF}
+     * @param propSpec additional properties, can be a single {@linkplain java.util.Properties} object or inline specification in pairs or a single string. Valid property names are defined in this class, etc.
+     * @return the recognition output in the specified format.
+     */
+    public String recognizeRegion(File file, int pageIndex, int startX, int startY, int width, int height, DecodedPageCache cache,
+        String recognizeType, String outputFormat, Object... propSpec) {
+        if(file == null || cache == null) {
+            throw new IllegalArgumentException("file and cache can not be null");
+        }
+        if(pageIndex < 1 || startX < 0 || startY < 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid page or region: page=" + pageIndex + ", region=" + startX + "," + startY + "," + width + "," + height);
+        }
+
+        BufferedImage region;
+        try {
+            region = cache.getRegion(file, pageIndex, new Rectangle(startX, startY, width, height));
+        } catch (IOException e) {
+            throw new OcrException("Failed to decode page " + pageIndex + " of " + file, e);
+        }
+        if(region == null) {
+            return recognize(file.getAbsolutePath(), pageIndex, startX, startY, width, height, recognizeType, outputFormat, propSpec);
+        }
+
+        String s = recognizeImage(region, 0, false, recognizeType, outputFormat, propSpec);
+        if(OUTPUT_FORMAT_XML.equals(outputFormat)) {
+            s = OcrResultMerger.translateXml(s, startX, startY);
+        }
         return s;
     }
 
+    /** Decodes an image in a format the engine does not read directly; stores its DPI, or 0 if unknown, in dpi[0]. */
+    static RenderedImage decode(InputStream in, int[] dpi) {
+        try {
+            RenderedImage img = ImageNormalizer.read(in, dpi);
+            if(img == null) {
+                throw new OcrException("Unsupported input format.");
+            }
+            return img;
+        } catch (IOException e) {
+            throw new OcrException("Failed to decode input.", e);
+        }
+    }
+
+
+    /** Applied to images before they are handed over; null for none. */
+    volatile ImageNormalizer imageNormalizer;
+
+    /**
+     * Sets the normalization applied by {@linkplain #recognize(RenderedImage, String, String, Object...)} in the calling
+     * thread before the image is handed over to the engine, e.g., {@linkplain ImageNormalizer#createDefault()}.
+     * {@linkplain OcrExecutorService#setImageNormalizer(ImageNormalizer)} normalizes off the engine threads instead.
+     * @param normalizer the normalizer or null for none (default).
+     */
+    public void setImageNormalizer(ImageNormalizer normalizer) {
+        this.imageNormalizer = normalizer;
+    }
+
+    public ImageNormalizer getImageNormalizer() {
+        return imageNormalizer;
+    }
+
+    /** Skips blank pages; null to recognize all pages. */
+    volatile BlankPageFilter blankPageFilter;
+
+    /**
+     * Sets the filter that returns an empty result for blank pages instead of recognizing them; applies to whole pages
+     * recognized in plain text or xml format.
+     * @param filter the filter or null to recognize all pages (default).
+     */
+    public void setBlankPageFilter(BlankPageFilter filter) {
+        this.blankPageFilter = filter;
+    }
+
+    public BlankPageFilter getBlankPageFilter() {
+        return blankPageFilter;
+    }
 
     /** Used to enforce single thread access to the OCR engine. */
     volatile Thread threadDoingOCR;
+    /** Input being recognized, e.g., for a watchdog to report; set together with {@linkplain #timeStartedOCR}. */
+    volatile String inputDoingOCR;
+    /** {@linkplain System#nanoTime()} when the current recognition started. */
+    volatile long timeStartedOCR;
 
     /**
      * Performs OCR on the given input files.
@@ -666,16 +927,36 @@ public class Ocr {
         if(threadDoingOCR != null) {
             throw new OcrException("Currently " + threadDoingOCR + " is using this OCR engine. Please create multiple OCR engine instances for multi-threading. ");
         }
+        // validation
+        if(StringUtils.isEmpty(files)) {
+            throw new IllegalArgumentException("files can not be empty!");
+        }
+
+        BlankPageFilter filter = blankPageFilter; // runs before the recognition is timed by the watchdog
+        if(filter != null) {
+            String skipped = filter.skipIfBlank(files, pageIndex, startX < 0, outputFormat);
+            if(skipped != null) {
+                return skipped;
+            }
+        }
+
+        return recognizeFiles(files, pageIndex, startX, startY, width, height, recognizeType, outputFormat, propSpec);
+    }
+
+    /** Hands the files over to the engine without going through the blank page filter. */
+    private String recognizeFiles(String files, int pageIndex, int startX, int startY, int width, int height, String recognizeType, String outputFormat,
+        Object... propSpec) {
+        if(threadDoingOCR != null) {
+            throw new OcrException("Currently " + threadDoingOCR + " is using this OCR engine. Please create multiple OCR engine instances for multi-threading. ");
+        }
 
         // process properties
         Properties props = readProperties(propSpec);
 
         try {
+            timeStartedOCR = System.nanoTime();
+            inputDoingOCR = files + (pageIndex > 0 ? "#page=" + pageIndex : "") + (startX >= 0 ? "#region=" + startX + "," + startY + "," + width + "," + height : "");
             threadDoingOCR = Thread.currentThread();
-            // validation
-            if(StringUtils.isEmpty(files)) {
-                throw new IllegalArgumentException("files can not be empty!");
-            }
 
             // PDF output
             String pdfOutputFile = props.getProperty(PROP_PDF_OUTPUT_FILE);
@@ -686,6 +967,7 @@ public class Ocr {
             return doRecognize(files, pageIndex, startX, startY, width, height, recognizeType, outputFormat, propsToString(props), CONFIG_PROP_SEPARATOR, CONFIG_PROP_KEY_VALUE_SEPARATOR);
         } finally {
             threadDoingOCR = null;
+            inputDoingOCR = null;
         }
     }
 
@@ -0,0 +1,129 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import java.util.Arrays;
+
+/**
+ * Hill-climbs the number of engines of an {@linkplain OcrExecutorService} towards the highest completed task rate.
+ * <p>The rate of completed tasks is recorded for every engine count tried. The preferred count is the smallest one
+ * whose rate is within the tolerance of the best rate recorded, as the same throughput with fewer engines saves memory
+ * and bandwidth. At the preferred count the sizer probes a neighbouring count, keeping the direction while probes pay
+ * off; anywhere else it goes back to the preferred count. Comparing with the best rate rather than the previous one
+ * keeps a run of small losses from sliding the pool down to the minimum. Intervals in which the pool is not saturated
+ * say nothing about the capacity of the host and are skipped, as is the first interval after a change while new
+ * engines start.</p>
+ */
+class OcrAdaptiveSizer implements Runnable {
+
+    /** Relative throughput change regarded as noise. */
+    static final double TOLERANCE = 0.05;
+
+    final OcrExecutorService executor;
+    final int minEngines;
+    final int maxEngines;
+
+    long lastCompleted;
+    long lastNanos;
+    /** Throughput measured at each engine count, smoothed over visits; negative if not measured yet. */
+    final double[] measured;
+    /** Engine count probed by the last change; -1 if the last change went back to the preferred count. */
+    int probed = -1;
+    /** Direction of the next probe; flipped before the first one, which therefore adds an engine. */
+    int direction = -1;
+    boolean settling = true;
+    volatile double lastThroughput;
+
+    OcrAdaptiveSizer(OcrExecutorService executor, int minEngines, int maxEngines) {
+        this.executor = executor;
+        this.minEngines = minEngines;
+        this.maxEngines = maxEngines;
+        this.lastCompleted = executor.getCompletedRecognitionCount();
+        this.lastNanos = System.nanoTime();
+        this.measured = new double[maxEngines + 1];
+        Arrays.fill(measured, -1);
+    }
+
+    @Override
+    public void run() {
+        try {
+            adjust();
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    synchronized void adjust() {
+        if(executor.isShutdown()) {
+            return;
+        }
+        long completed = executor.getCompletedRecognitionCount();
+        long now = System.nanoTime();
+        double seconds = (now - lastNanos) / 1e9;
+        double throughput = seconds > 0 ? (completed - lastCompleted) / seconds : 0;
+        lastCompleted = completed;
+        lastNanos = now;
+
+        int current = executor.getEngineCount();
+        boolean saturated = executor.getQueueDepth() > 0 && executor.getActiveCount() >= executor.getCorePoolSize();
+        if(settling || !saturated) {
+            settling = false;
+            return;
+        }
+        lastThroughput = throughput;
+        if(current < minEngines || current > maxEngines) { // resized by hand
+            executor.resize(Math.max(minEngines, Math.min(maxEngines, current)));
+            settling = true;
+            return;
+        }
+        measured[current] = measured[current] < 0 ? throughput : (measured[current] + throughput) / 2;
+
+        int target = preferredEngineCount();
+        if(target == current) {
+            if(probed != current) { // the last probe did not pay off: try the other side
+                direction = -direction;
+            }
+            target = current + direction;
+            if(target < minEngines || target > maxEngines) {
+                direction = -direction;
+                target = Math.max(minEngines, Math.min(maxEngines, current + direction));
+            }
+            probed = target;
+        } else {
+            probed = -1;
+        }
+        if(target != current) {
+            executor.resize(target);
+            settling = true;
+        }
+    }
+
+    /** The smallest engine count whose measured throughput is within the tolerance of the best one. */
+    int preferredEngineCount() {
+        double best = -1;
+        for(int n = minEngines; n <= maxEngines; n++) {
+            best = Math.max(best, measured[n]);
+        }
+        for(int n = minEngines; n <= maxEngines; n++) {
+            if(measured[n] >= 0 && measured[n] >= best * (1 - TOLERANCE)) {
+                return n;
+            }
+        }
+        return executor.getEngineCount();
+    }
+}
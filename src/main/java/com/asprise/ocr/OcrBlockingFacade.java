@@ -0,0 +1,161 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain blocking OCR calls that can be made from any number of short-lived threads, including virtual threads.
+ * <p>The calling thread never runs native code: the recognition is handed to a bounded set of platform worker threads
+ * owning the engines ({@linkplain OcrExecutorService}) and the caller waits on the result using
+ * <code>java.util.concurrent</code> primitives only, which park a virtual thread instead of pinning its carrier.
+ * Admission is limited by a semaphore so that at most the given number of callers are queued or running at any time;
+ * others wait (parked) for a permit, up to the admission timeout.</p>
+ * <pre>OcrBlockingFacade ocr = new OcrBlockingFacade("eng", Ocr.SPEED_FASTEST, 4, 64, 30, TimeUnit.SECONDS);
+ * // from any thread:
+ * String s = ocr.recognize(new File[] {new File("test.jpg")}, Ocr.RECOGNIZE_TYPE_ALL, Ocr.OUTPUT_FORMAT_PLAINTEXT);</pre>
+ */
+public class OcrBlockingFacade {
+
+    final OcrExecutorService executor;
+    final Semaphore admission;
+    final int maxAdmitted;
+    final long admissionTimeoutNanos;
+
+    final Runnable releasePermit = new Runnable() {
+        @Override
+        public void run() {
+            admission.release();
+        }
+    };
+
+    /**
+     * Creates a facade with its own engine-owning worker threads.
+     * @param lang language to recognize
+     * @param speed speed settings, e.g., {@linkplain Ocr#SPEED_FASTEST}.
+     * @param engines number of platform threads (and engines) doing recognition.
+     * @param maxAdmitted max number of calls queued or running at the same time.
+     * @param admissionTimeout how long a caller waits to be admitted before {@linkplain OcrRejectedExecutionException} is thrown.
+     * @param unit unit of the timeout
+     */
+    public OcrBlockingFacade(String lang, String speed, int engines, int maxAdmitted, long admissionTimeout, TimeUnit unit) {
+        this(new OcrExecutorService(lang, speed, engines, maxAdmitted, OcrExecutorService.RejectionPolicy.FAIL_FAST), maxAdmitted, admissionTimeout, unit);
+    }
+
+    /**
+     * Creates a facade on top of the given executor.
+     * @param executor executor owning the engines; its workers must be platform threads.
+     * @param maxAdmitted max number of calls queued or running at the same time.
+     * @param admissionTimeout how long a caller waits to be admitted before {@linkplain OcrRejectedExecutionException} is thrown.
+     * @param unit unit of the timeout
+     */
+    public OcrBlockingFacade(OcrExecutorService executor, int maxAdmitted, long admissionTimeout, TimeUnit unit) {
+        if(maxAdmitted < 1) {
+            throw new IllegalArgumentException("Invalid max admitted: " + maxAdmitted);
+        }
+        this.executor = executor;
+        this.maxAdmitted = maxAdmitted;
+        this.admission = new Semaphore(maxAdmitted, true);
+        this.admissionTimeoutNanos = unit.toNanos(admissionTimeout);
+    }
+
+    /** See {@linkplain Ocr#recognize(File[], String, String, Object...)} */
+    public String recognize(File[] files, String recognizeType, String outputFormat, Object... propSpec) {
+        return call(new OcrExecutorService.OcrCallable(files, recognizeType, outputFormat, propSpec));
+    }
+
+    /** See {@linkplain Ocr#recognize(URL[], String, String, Object...)} */
+    public String recognize(URL[] sources, String recognizeType, String outputFormat, Object... propSpec) {
+        return call(new OcrExecutorService.OcrCallable(sources, recognizeType, outputFormat, propSpec));
+    }
+
+    /** See {@linkplain Ocr#recognize(RenderedImage, String, String, Object...)} */
+    public String recognize(RenderedImage img, String recognizeType, String outputFormat, Object... propSpec) {
+        return call(new OcrExecutorService.OcrCallable(img, recognizeType, outputFormat, propSpec));
+    }
+
+    /** See {@linkplain Ocr#recognize(String, int, int, int, int, int, String, String, Object...)} */
+    public String recognize(String files, int pageIndex, int startX, int startY, int width, int height, String recognizeType, String outputFormat, Object... propSpec) {
+        return call(new OcrExecutorService.OcrCallable(files, pageIndex, startX, startY, width, height, recognizeType, outputFormat, propSpec));
+    }
+
+    /**
+     * Runs the task on a worker thread and waits for its result.
+     * @throws OcrRejectedExecutionException if not admitted within the admission timeout.
+     * @throws OcrException if the recognition failed or the calling thread was interrupted.
+     */
+    public String call(OcrExecutorService.OcrCallable task) {
+        try {
+            if(!admission.tryAcquire(admissionTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new OcrRejectedExecutionException("Timed out waiting to be admitted; " + maxAdmitted + " OCR calls are in progress.", executor.getQueueDepth());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OcrException("Interrupted while waiting to be admitted.", e);
+        }
+
+        OcrFuture<String> future;
+        try {
+            future = executor.submit(task);
+        } catch (RuntimeException e) {
+            admission.release();
+            throw e;
+        }
+        // the permit is held until the engine is done, even if the caller stops waiting
+        future.addListener(releasePermit, null);
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if(executor.remove(future)) { // the native call can not be interrupted; only queued work is dropped
+                future.cancel(false);
+            }
+            Thread.currentThread().interrupt();
+            throw new OcrException("Interrupted while waiting for OCR result.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof OcrException) {
+                throw (OcrException) cause;
+            }
+            throw new OcrException(cause);
+        }
+    }
+
+    /** Number of calls admitted whose recognition has not completed yet. */
+    public int getAdmittedCount() {
+        return maxAdmitted - admission.availablePermits();
+    }
+
+    /** Number of callers waiting to be admitted (estimate). */
+    public int getWaitingCount() {
+        return admission.getQueueLength();
+    }
+
+    public OcrExecutorService getExecutor() {
+        return executor;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,542 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import com.asprise.ocr.util.NamedThreadFactory;
+import com.asprise.ocr.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of started OCR engines keyed by language, speed and start properties.
+ * <p>Engine start is expensive, so engines are kept warm and shared among callers. An engine obtained through
+ * {@linkplain #borrow(String, String, long, TimeUnit, Object...)} belongs to the caller until it is returned
+ * with {@linkplain #release(Ocr)}; as with any {@linkplain Ocr}, it must be used by one thread at a time.</p>
+ * <p>Engines are started and stopped on a single lifecycle thread of the pool, so that each engine is stopped by the
+ * thread that started it, and only while idle; in between, they are used by the borrowing threads. Engines started on
+ * demand by concurrent borrowers are therefore started one after another.</p>
+ * <h3>Code sample</h3>
+ * <pre>OcrEnginePool pool = new OcrEnginePool(1, 4, 5 * 60 * 1000L);
+ * Ocr ocr = pool.borrow("eng", Ocr.SPEED_FASTEST, 10, TimeUnit.SECONDS);
+ * try {
+ *     String s = ocr.recognize(new File[] {new File("test.jpg")}, Ocr.RECOGNIZE_TYPE_ALL, Ocr.OUTPUT_FORMAT_PLAINTEXT);
+ * } finally {
+ *     pool.release(ocr);
+ * }
+ * // ...
+ * pool.close();</pre>
+ */
+public class OcrEnginePool {
+
+    int defaultMinSize;
+    int defaultMaxSize;
+    long idleTimeoutMillis;
+
+    final ConcurrentHashMap<EngineKey, KeyedEngines> keyedEngines = new ConcurrentHashMap<EngineKey, KeyedEngines>();
+    final ConcurrentHashMap<Ocr, PooledEngine> borrowedEngines = new ConcurrentHashMap<Ocr, PooledEngine>();
+
+    /** Starts, stops and maintains all engines of the pool on its single thread. */
+    final ScheduledExecutorService lifecycleExecutor;
+    final ScheduledFuture<?> maintenance;
+
+    final AtomicLong startedCount = new AtomicLong();
+    final AtomicLong evictedCount = new AtomicLong();
+
+    volatile boolean closed;
+
+    /**
+     * Creates a pool that keeps between 0 and the number of CPU cores engines per key; engines idle for more than five minutes are stopped.
+     */
+    public OcrEnginePool() {
+        this(0, OcrExecutorService.getCpuCores(), 5 * 60 * 1000L);
+    }
+
+    /**
+     * Creates a new engine pool.
+     * @param minSizePerKey number of engines to keep started for each key once the key has been used.
+     * @param maxSizePerKey maximum number of engines (idle plus borrowed) for each key.
+     * @param idleTimeoutMillis engines idle for longer than this are stopped, as long as at least minSizePerKey engines remain; 0 to disable eviction.
+     */
+    public OcrEnginePool(int minSizePerKey, int maxSizePerKey, long idleTimeoutMillis) {
+        validateSizes(minSizePerKey, maxSizePerKey);
+        this.defaultMinSize = minSizePerKey;
+        this.defaultMaxSize = maxSizePerKey;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        Ocr.setUp();
+
+        lifecycleExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ocr-engine-pool", true));
+        long period = idleTimeoutMillis > 0 ? Math.max(1000L, idleTimeoutMillis / 2) : 1000L;
+        maintenance = lifecycleExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintain();
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Overrides the min/max sizes for the given key.
+     * @param lang language of the engines
+     * @param speed speed of the engines, e.g., {@linkplain Ocr#SPEED_FASTEST}.
+     * @param minSize number of engines to keep started for this key.
+     * @param maxSize maximum number of engines for this key.
+     * @param startPropSpec start properties, see {@linkplain Ocr#startEngine(String, String, Object...)}
+     */
+    public void setKeySizes(String lang, String speed, int minSize, int maxSize, Object... startPropSpec) {
+        validateSizes(minSize, maxSize);
+        KeyedEngines engines = getKeyedEngines(lang, speed, startPropSpec);
+        engines.lock.lock();
+        try {
+            engines.minSize = minSize;
+            engines.maxSize = maxSize;
+            engines.available.signalAll();
+        } finally {
+            engines.lock.unlock();
+        }
+    }
+
+    /**
+     * Borrows a started engine for the given key, starting a new one if none is idle and the key is below its max size.
+     * @param lang language of the engine
+     * @param speed speed of the engine, e.g., {@linkplain Ocr#SPEED_FASTEST}.
+     * @param timeout how long to wait for an engine to become available
+     * @param unit unit of the timeout
+     * @param startPropSpec start properties, see {@linkplain Ocr#startEngine(String, String, Object...)}
+     * @return the engine or <pre>null</pre> if no engine becomes available before the timeout elapses.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Ocr borrow(String lang, String speed, long timeout, TimeUnit unit, Object... startPropSpec) throws InterruptedException {
+        KeyedEngines engines = getKeyedEngines(lang, speed, startPropSpec);
+        long nanos = unit.toNanos(timeout);
+
+        engines.lock.lockInterruptibly();
+        try {
+            while(true) {
+                ensureOpen();
+                PooledEngine engine = engines.idle.pollFirst();
+                if(engine != null) {
+                    borrowedEngines.put(engine.ocr, engine);
+                    return engine.ocr;
+                }
+                if(engines.total < engines.maxSize) {
+                    engines.total++; // reserves the slot; the engine is started outside of the lock
+                    break;
+                }
+                if(nanos <= 0) {
+                    return null;
+                }
+                nanos = engines.available.awaitNanos(nanos);
+            }
+        } finally {
+            engines.lock.unlock();
+        }
+
+        PooledEngine engine = startEngineOnLifecycleThread(engines);
+        borrowedEngines.put(engine.ocr, engine);
+        return engine.ocr;
+    }
+
+    /**
+     * Returns an engine to the pool.
+     * @param ocr an engine obtained from {@linkplain #borrow(String, String, long, TimeUnit, Object...)}
+     */
+    public void release(Ocr ocr) {
+        PooledEngine engine = borrowedEngines.remove(ocr);
+        if(engine == null) {
+            throw new IllegalArgumentException("The engine was not borrowed from this pool: " + ocr);
+        }
+
+        if(closed || !ocr.isEngineRunning()) {
+            discard(engine);
+            return;
+        }
+
+        KeyedEngines engines = engine.owner;
+        engines.lock.lock();
+        try {
+            engine.lastReleased = System.currentTimeMillis();
+            engines.idle.addFirst(engine);
+            engines.available.signal();
+        } finally {
+            engines.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops a borrowed engine instead of returning it to the pool, e.g., after it reported an error.
+     * @param ocr an engine obtained from {@linkplain #borrow(String, String, long, TimeUnit, Object...)}
+     */
+    public void invalidate(Ocr ocr) {
+        PooledEngine engine = borrowedEngines.remove(ocr);
+        if(engine == null) {
+            throw new IllegalArgumentException("The engine was not borrowed from this pool: " + ocr);
+        }
+        discard(engine);
+    }
+
+    /**
+     * Stops all idle engines; engines currently borrowed are stopped when they are released. The lifecycle thread of
+     * the pool exits once all engines are stopped.
+     */
+    public void close() {
+        closed = true;
+        maintenance.cancel(false);
+
+        List<PooledEngine> toStop = new ArrayList<PooledEngine>();
+        for(KeyedEngines engines : keyedEngines.values()) {
+            engines.lock.lock();
+            try {
+                toStop.addAll(engines.idle);
+                engines.total -= engines.idle.size();
+                engines.idle.clear();
+                engines.available.signalAll();
+            } finally {
+                engines.lock.unlock();
+            }
+        }
+        stopEngines(toStop);
+    }
+
+    /** Number of idle engines of all keys. */
+    public int getIdleCount() {
+        int count = 0;
+        for(KeyedEngines engines : keyedEngines.values()) {
+            engines.lock.lock();
+            try {
+                count += engines.idle.size();
+            } finally {
+                engines.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /** Number of engines currently borrowed. */
+    public int getBorrowedCount() {
+        return borrowedEngines.size();
+    }
+
+    /** Total number of engines started by this pool. */
+    public long getStartedCount() {
+        return startedCount.get();
+    }
+
+    /** Total number of engines stopped due to idle timeout. */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /** Evicts engines idle for too long and tops up keys below their min size. */
+    void maintain() {
+        long now = System.currentTimeMillis();
+        for(KeyedEngines engines : keyedEngines.values()) {
+            if(closed) {
+                return;
+            }
+
+            List<PooledEngine> toStop = new ArrayList<PooledEngine>();
+            int toStart;
+            engines.lock.lock();
+            try {
+                if(idleTimeoutMillis > 0) {
+                    // least recently used engines are at the end of the list
+                    Iterator<PooledEngine> it = engines.idle.descendingIterator();
+                    while(it.hasNext() && engines.total > engines.minSize) {
+                        PooledEngine engine = it.next();
+                        if(now - engine.lastReleased < idleTimeoutMillis) {
+                            break;
+                        }
+                        it.remove();
+                        engines.total--;
+                        toStop.add(engine);
+                    }
+                }
+                toStart = Math.max(0, engines.minSize - engines.total);
+                engines.total += toStart;
+            } finally {
+                engines.lock.unlock();
+            }
+
+            evictedCount.addAndGet(toStop.size());
+            stopEngines(toStop);
+
+            for(int i = 0; i < toStart; i++) {
+                PooledEngine engine;
+                try {
+                    engine = startEngine(engines);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                    continue;
+                }
+                boolean stop = false;
+                engines.lock.lock();
+                try {
+                    if(closed) { // closed while starting
+                        engines.total--;
+                        stop = true;
+                    } else {
+                        engine.lastReleased = System.currentTimeMillis();
+                        engines.idle.addLast(engine);
+                        engines.available.signal();
+                    }
+                } finally {
+                    engines.lock.unlock();
+                }
+                if(stop) {
+                    stopEngines(Collections.singletonList(engine));
+                }
+            }
+        }
+    }
+
+    /** Starts an engine on the lifecycle thread for a slot already reserved in engines.total and waits for it. */
+    PooledEngine startEngineOnLifecycleThread(final KeyedEngines engines) {
+        Future<PooledEngine> future;
+        try {
+            future = lifecycleExecutor.submit(new Callable<PooledEngine>() {
+                @Override
+                public PooledEngine call() {
+                    return startEngine(engines);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            releaseSlot(engines);
+            throw new OcrException("The engine pool has been closed.");
+        }
+        boolean interrupted = false;
+        try {
+            while(true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the engine is started anyway and must not be lost
+                }
+            }
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new OcrException("Failed to start engine " + engines.key, e.getCause());
+        } finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Starts an engine for a slot already reserved in engines.total; must be called on the lifecycle thread. */
+    PooledEngine startEngine(KeyedEngines engines) {
+        Ocr ocr = new Ocr();
+        try {
+            ocr.startEngine(engines.key.lang, engines.key.speed, engines.startProps);
+        } catch (RuntimeException e) {
+            releaseSlot(engines);
+            shutdownIfDrained();
+            throw e;
+        }
+        startedCount.incrementAndGet();
+        return new PooledEngine(ocr, engines);
+    }
+
+    static void releaseSlot(KeyedEngines engines) {
+        engines.lock.lock();
+        try {
+            engines.total--;
+            engines.available.signal();
+        } finally {
+            engines.lock.unlock();
+        }
+    }
+
+    void discard(PooledEngine engine) {
+        releaseSlot(engine.owner);
+        stopEngines(Collections.singletonList(engine));
+    }
+
+    /** Stops the engines, whose slots have been released, on the lifecycle thread. */
+    void stopEngines(final List<PooledEngine> engines) {
+        lifecycleExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for(PooledEngine engine : engines) {
+                    try {
+                        engine.ocr.stopEngine();
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                }
+                shutdownIfDrained();
+            }
+        });
+    }
+
+    /** Lets the lifecycle thread exit once the pool is closed and all its engines are stopped. */
+    void shutdownIfDrained() {
+        if(!closed) {
+            return;
+        }
+        for(KeyedEngines engines : keyedEngines.values()) {
+            engines.lock.lock();
+            try {
+                if(engines.total > 0) {
+                    return;
+                }
+            } finally {
+                engines.lock.unlock();
+            }
+        }
+        lifecycleExecutor.shutdown();
+    }
+
+    KeyedEngines getKeyedEngines(String lang, String speed, Object... startPropSpec) {
+        Properties props = Ocr.readProperties(startPropSpec);
+        EngineKey key = new EngineKey(lang, speed, toCanonicalString(props));
+        KeyedEngines engines = keyedEngines.get(key);
+        if(engines == null) {
+            KeyedEngines created = new KeyedEngines(key, props, defaultMinSize, defaultMaxSize);
+            engines = keyedEngines.putIfAbsent(key, created);
+            if(engines == null) {
+                engines = created;
+            }
+        }
+        return engines;
+    }
+
+    void ensureOpen() {
+        if(closed) {
+            throw new OcrException("The engine pool has been closed.");
+        }
+    }
+
+    static void validateSizes(int minSize, int maxSize) {
+        if(minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool sizes: min=" + minSize + ", max=" + maxSize);
+        }
+    }
+
+    /** Properties in key order so that equivalent specifications map to the same key. */
+    static String toCanonicalString(Properties props) {
+        String[] keys = new String[props.size()];
+        int i = 0;
+        for(Object key : props.keySet()) {
+            keys[i++] = String.valueOf(key);
+        }
+        Arrays.sort(keys);
+
+        StringBuilder sb = new StringBuilder();
+        for(String key : keys) {
+            if(sb.length() > 0) {
+                sb.append(Ocr.CONFIG_PROP_SEPARATOR);
+            }
+            sb.append(key).append(Ocr.CONFIG_PROP_KEY_VALUE_SEPARATOR).append(props.get(key));
+        }
+        return sb.toString();
+    }
+
+    /** Identifies engines that can be used interchangeably. */
+    static class EngineKey {
+        final String lang;
+        final String speed;
+        final String startProps;
+
+        EngineKey(String lang, String speed, String startProps) {
+            this.lang = lang;
+            this.speed = speed;
+            this.startProps = startProps;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof EngineKey)) {
+                return false;
+            }
+            EngineKey other = (EngineKey) o;
+            return StringUtils.equals(lang, other.lang, true) && StringUtils.equals(speed, other.speed, true) && startProps.equals(other.startProps);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = lang == null ? 0 : lang.hashCode();
+            result = 31 * result + (speed == null ? 0 : speed.hashCode());
+            result = 31 * result + startProps.hashCode();
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return lang + "/" + speed + (startProps.length() == 0 ? "" : "/" + startProps);
+        }
+    }
+
+    /** Engines of a single key. */
+    static class KeyedEngines {
+        final EngineKey key;
+        final Properties startProps;
+        int minSize;
+        int maxSize;
+        /** Number of engines started or being started, both idle and borrowed. */
+        int total;
+        /** Most recently released engines first. */
+        final LinkedList<PooledEngine> idle = new LinkedList<PooledEngine>();
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition available = lock.newCondition();
+
+        KeyedEngines(EngineKey key, Properties startProps, int minSize, int maxSize) {
+            this.key = key;
+            this.startProps = startProps;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+        }
+    }
+
+    static class PooledEngine {
+        final Ocr ocr;
+        final KeyedEngines owner;
+        long lastReleased;
+
+        PooledEngine(Ocr ocr, KeyedEngines owner) {
+            this.ocr = ocr;
+            this.owner = owner;
+        }
+    }
+}
@@ -17,8 +17,25 @@
  **********************************************************************************************/
 package com.asprise.ocr;
 
+import com.asprise.ocr.util.BlankPageFilter;
+import com.asprise.ocr.util.DecodedPageCache;
+import com.asprise.ocr.util.ImageNormalizer;
+import com.asprise.ocr.util.NamedThreadFactory;
+import com.asprise.ocr.util.OcrLibHelper;
+import com.asprise.ocr.util.Utils;
+
+import java.awt.image.RenderedImage;
 import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Executor service for OCR.
@@ -31,6 +48,94 @@ public class OcrExecutorService extends ThreadPoolExecutor {
     String lang;
     String speed;
 
+    /** Priority class of an OCR task. */
+    public static enum Priority {
+        /** Latency sensitive requests, e.g., a user waiting for a single page. */
+        INTERACTIVE,
+        /** Default priority. */
+        STANDARD,
+        /** Throughput oriented work, e.g., overnight batches. */
+        BULK
+    }
+
+    /** Default time a task waits before being promoted by one priority class. */
+    public static final long DEFAULT_PRIORITY_AGING_MILLIS = 10 * 1000L;
+
+    /** How often a submitting thread blocked by {@linkplain RejectionPolicy#BLOCK} checks for memory headroom. */
+    static final long MEMORY_HEADROOM_POLL_MILLIS = 100;
+
+    /** What to do with a task submitted when the work queue is full or the resource governor finds too little memory headroom. */
+    public static enum RejectionPolicy {
+        /** Blocks the submitting thread until there is room in the queue. */
+        BLOCK,
+        /** Throws {@linkplain OcrRejectedExecutionException}. */
+        FAIL_FAST,
+        /** Cancels the oldest task of the lowest priority in the queue to make room for the new one. */
+        DROP_OLDEST,
+        /** Runs the task on the submitting thread with a temporary engine. */
+        CALLER_RUNS
+    }
+
+    final int queueCapacity;
+    volatile RejectionPolicy rejectionPolicy;
+
+    final AtomicLong rejectedCount = new AtomicLong();
+    final AtomicLong droppedCount = new AtomicLong();
+    final AtomicLong callerRunsCount = new AtomicLong();
+    final AtomicLong blockedCount = new AtomicLong();
+    final AtomicLong expiredCount = new AtomicLong();
+    final AtomicLong cancelledCount = new AtomicLong();
+
+    ConcurrentHashMap<Ocr, EngineUsage> engineUsageMap = new ConcurrentHashMap<Ocr, EngineUsage>();
+    volatile int maxRecognitionsPerEngine;
+    volatile long maxRssGrowthPerEngine;
+    final AtomicLong recycledCount = new AtomicLong();
+    /** Workers due for recycling, each with the flag set once the spare worker replacing it has started its engine. */
+    final ConcurrentHashMap<Thread, AtomicBoolean> retiringWorkers = new ConcurrentHashMap<Thread, AtomicBoolean>();
+    /** Flags of spare workers requested but not yet started. */
+    final ConcurrentLinkedQueue<AtomicBoolean> pendingSpares = new ConcurrentLinkedQueue<AtomicBoolean>();
+    /** Workers in the pool size that stand in for retiring workers; not counted as engines. */
+    final AtomicInteger spareWorkers = new AtomicInteger();
+
+    volatile boolean prestartEngines;
+    volatile boolean warmUpRecognition;
+    volatile CountDownLatch readyLatch;
+    volatile Throwable prestartFailure;
+
+    final AtomicLong completedRecognitionCount = new AtomicLong();
+    ScheduledExecutorService sizingScheduler;
+    volatile OcrAdaptiveSizer adaptiveSizer;
+
+    OcrResourceGovernor governor;
+
+    final AtomicLong leakedEngineCount = new AtomicLong();
+
+    /** Task being run by each worker thread. */
+    final ConcurrentHashMap<Thread, Runnable> runningTasks = new ConcurrentHashMap<Thread, Runnable>();
+    /** Engines stuck in a recognition, by the worker thread running it. */
+    final ConcurrentHashMap<Thread, Ocr> abandonedEngines = new ConcurrentHashMap<Thread, Ocr>();
+    /** Workers in the pool size that are abandoned; not counted as engines. */
+    final AtomicInteger abandonedWorkers = new AtomicInteger();
+    final AtomicLong abandonedCount = new AtomicLong();
+    /** Most recent inputs of abandoned recognitions. */
+    final LinkedList<String> hungInputs = new LinkedList<String>();
+    static final int MAX_HUNG_INPUTS_KEPT = 100;
+    ScheduledExecutorService watchdogScheduler;
+
+    /** Decoded pages shared by region recognitions; null to let the engines decode pages themselves. */
+    volatile DecodedPageCache regionCache;
+
+    /** Applied to images on its own pool before they are queued for an engine; null for none. */
+    volatile ImageNormalizer imageNormalizer;
+
+    /** Skips blank pages of {@linkplain OcrCallable} tasks; null to recognize all pages. */
+    volatile BlankPageFilter blankPageFilter;
+
+    /** Number of worker threads that have not yet stopped their engines. */
+    int liveEngineThreads;
+    final ReentrantLock engineThreadLock = new ReentrantLock();
+    final Condition engineThreadsStopped = engineThreadLock.newCondition();
+
     /**
      * A service executor with thread count equal to number of CPU core available.
      * @param lang language to recognize
@@ -47,17 +152,105 @@ public class OcrExecutorService extends ThreadPoolExecutor {
      * @param poolSize number of threads to be used in this executor.
      */
     public OcrExecutorService(String lang, String speed, int poolSize) {
-        super(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>());
+        this(lang, speed, poolSize, Integer.MAX_VALUE, RejectionPolicy.FAIL_FAST);
+    }
+
+    /**
+     * Creates a new instance of OCR service executor with a bounded work queue.
+     * @param lang language to recognize
+     * @param speed speed settings, e.g., {@linkplain Ocr#SPEED_FASTEST}.
+     * @param poolSize number of threads to be used in this executor.
+     * @param queueCapacity max number of tasks waiting for an engine.
+     * @param rejectionPolicy what to do with tasks submitted when the queue is full.
+     */
+    public OcrExecutorService(String lang, String speed, int poolSize, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        super(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new OcrTaskQueue(queueCapacity, DEFAULT_PRIORITY_AGING_MILLIS));
+        if(rejectionPolicy == null) {
+            throw new IllegalArgumentException("rejectionPolicy can not be null");
+        }
         this.lang = lang;
         this.speed = speed;
+        this.queueCapacity = queueCapacity;
+        this.rejectionPolicy = rejectionPolicy;
+        setRejectedExecutionHandler(new OcrRejectedExecutionHandler());
+        setThreadFactory(new EngineThreadFactory());
         Ocr.setUp();
     }
 
+    /**
+     * Creates a new instance of OCR service executor sized to the CPU and memory limits of the container; new tasks
+     * submitted while the process is close to its memory limit are handled by the rejection policy: BLOCK waits until
+     * there is headroom again, CALLER_RUNS runs the task on the submitting thread and the others throw
+     * {@linkplain OcrRejectedExecutionException} as dropping a queued task frees no memory.
+     * @param lang language to recognize
+     * @param speed speed settings, e.g., {@linkplain Ocr#SPEED_FASTEST}.
+     * @param governor resource limits, e.g., {@linkplain OcrResourceGovernor#detect()}.
+     * @param queueCapacity max number of tasks waiting for an engine.
+     * @param rejectionPolicy what to do with tasks submitted when the queue is full.
+     */
+    public OcrExecutorService(String lang, String speed, OcrResourceGovernor governor, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this(lang, speed, governor.getEngineCount(), queueCapacity, rejectionPolicy);
+        this.governor = governor;
+    }
+
+    /**
+     * Starts all worker threads now; each of them starts its engine in parallel and optionally runs a warm-up recognition
+     * before taking any task. Must be called before any task is submitted. Use {@linkplain #awaitReady(long, TimeUnit)}
+     * to wait for all engines to become ready.
+     * @param warmUpRecognition true to run a small sample image through each engine once it is started.
+     */
+    public void prestartEngines(boolean warmUpRecognition) {
+        if(getPoolSize() > 0) {
+            throw new IllegalStateException("Engines must be pre-started before any task is submitted.");
+        }
+        this.warmUpRecognition = warmUpRecognition;
+        this.readyLatch = new CountDownLatch(getCorePoolSize());
+        this.prestartEngines = true;
+        prestartAllCoreThreads();
+    }
+
+    /**
+     * Waits until all engines pre-started by {@linkplain #prestartEngines(boolean)} are ready.
+     * @return true if all engines are ready or false if the timeout elapsed first.
+     * @throws OcrException if any engine failed to start or to warm up.
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch latch = readyLatch;
+        if(latch == null) {
+            throw new IllegalStateException("Engines have not been pre-started.");
+        }
+        boolean ready = latch.await(timeout, unit);
+        if(prestartFailure != null) {
+            throw new OcrException("Failed to pre-start OCR engine: " + prestartFailure.getMessage(), prestartFailure);
+        }
+        return ready;
+    }
+
+    /** Returns true once all engines pre-started by {@linkplain #prestartEngines(boolean)} are ready. */
+    public boolean isReady() {
+        CountDownLatch latch = readyLatch;
+        return latch != null && latch.getCount() == 0 && prestartFailure == null;
+    }
+
+    /** Starts the engine of the current worker thread and optionally runs a warm-up recognition. */
+    void prestartEngine() {
+        try {
+            Ocr ocr = getOcr(Thread.currentThread());
+            if(warmUpRecognition) {
+                ocr.recognize(OcrLibHelper.getSampleImage(), Ocr.RECOGNIZE_TYPE_ALL, Ocr.OUTPUT_FORMAT_PLAINTEXT);
+            }
+        } catch (Throwable t) {
+            prestartFailure = t;
+        } finally {
+            readyLatch.countDown();
+        }
+    }
+
     private Ocr getOcr(Thread t) {
         Ocr ocr = threadOcrMap.get(t);
         if(ocr == null) {
-            ocr = new Ocr();
-            ocr.startEngine(lang, speed);
+            reclaimDeadThreadEngines();
+            ocr = startEngine();
             //System.out.println("Engine started by thread " + Thread.currentThread());
             //ocr.stopEngine();
             //System.out.println("Stopped now.");
@@ -67,32 +260,404 @@ public class OcrExecutorService extends ThreadPoolExecutor {
         return ocr;
     }
 
+    Ocr startEngine() {
+        Ocr ocr = new Ocr();
+        ocr.startEngine(lang, speed);
+        engineUsageMap.put(ocr, new EngineUsage());
+        return ocr;
+    }
+
+    /**
+     * Replaces engines after a number of recognitions or once the process has grown by the given amount of resident
+     * memory since the engine was started. A spare worker thread joins the pool and starts its engine while the old
+     * engine keeps serving; once the spare is ready, the old worker stops its engine after its next task and leaves the
+     * pool, so the swap does not reduce capacity and every engine is started and stopped by the thread that uses it.
+     * Without a spare, e.g., with a thread factory of your own, the old worker stops its engine right away and starts a
+     * new one on its next task.
+     * @param maxRecognitionsPerEngine recycle an engine after this many tasks; 0 to disable.
+     * @param maxRssGrowthBytes recycle an engine once the process RSS (from /proc/self/status) has grown by this many bytes since it was started; 0 to disable.
+     */
+    public synchronized void setEngineRecycling(int maxRecognitionsPerEngine, long maxRssGrowthBytes) {
+        if(maxRecognitionsPerEngine < 0 || maxRssGrowthBytes < 0) {
+            throw new IllegalArgumentException("Invalid recycling thresholds: " + maxRecognitionsPerEngine + ", " + maxRssGrowthBytes);
+        }
+        this.maxRecognitionsPerEngine = maxRecognitionsPerEngine;
+        this.maxRssGrowthPerEngine = maxRssGrowthBytes;
+    }
+
+    /**
+     * Adjusts the number of engines to the count giving the highest throughput on this host, which is often less than
+     * the number of logical processors as native OCR is bound by memory bandwidth. Every <code>intervalMillis</code>,
+     * while the pool is saturated, a neighbouring count is probed or the pool goes back to the best count measured.
+     * @param minEngines lower bound of the engine count.
+     * @param maxEngines upper bound of the engine count.
+     * @param intervalMillis measurement interval; should cover a good number of recognitions.
+     */
+    public synchronized void enableAdaptiveSizing(int minEngines, int maxEngines, long intervalMillis) {
+        if(minEngines < 1 || maxEngines < minEngines || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid adaptive sizing settings: " + minEngines + ", " + maxEngines + ", " + intervalMillis);
+        }
+        if(isShutdown()) {
+            throw new IllegalStateException("OCR executor has been shut down.");
+        }
+        disableAdaptiveSizing();
+        int size = getEngineCount();
+        if(size < minEngines || size > maxEngines) {
+            resize(Math.max(minEngines, Math.min(maxEngines, size)));
+        }
+        adaptiveSizer = new OcrAdaptiveSizer(this, minEngines, maxEngines);
+        sizingScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ocr-adaptive-sizing", true));
+        sizingScheduler.scheduleWithFixedDelay(adaptiveSizer, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops adjusting the number of engines; the current count is kept. */
+    public synchronized void disableAdaptiveSizing() {
+        if(sizingScheduler != null) {
+            sizingScheduler.shutdownNow();
+            sizingScheduler = null;
+            adaptiveSizer = null;
+        }
+    }
+
+    public synchronized boolean isAdaptiveSizing() {
+        return adaptiveSizer != null;
+    }
+
+    /**
+     * Sets the number of engines; takes effect immediately. Surplus engines are stopped as their threads become idle.
+     * Disables adaptive sizing.
+     */
+    public synchronized void setEngineCount(int engines) {
+        if(engines < 1) {
+            throw new IllegalArgumentException("Invalid engine count: " + engines);
+        }
+        disableAdaptiveSizing();
+        resize(engines);
+    }
+
+    /** Current target number of engines, not counting workers abandoned by the watchdog or spares for recycling. */
+    public int getEngineCount() {
+        return getCorePoolSize() - abandonedWorkers.get() - spareWorkers.get();
+    }
+
+    /** Completed tasks per second measured by adaptive sizing in its last saturated interval; 0 if not available. */
+    public double getMeasuredThroughput() {
+        OcrAdaptiveSizer sizer = adaptiveSizer;
+        return sizer == null ? 0 : sizer.lastThroughput;
+    }
+
+    /** Number of tasks whose input has been recognized by the engines of this executor; tasks expired, cancelled or skipped as blank are not counted. */
+    public long getCompletedRecognitionCount() {
+        return completedRecognitionCount.get();
+    }
+
+    /**
+     * Changes the number of engines, never above the governor's engine count; workers abandoned by the watchdog and
+     * spare workers for recycling are added on top.
+     */
+    synchronized void resize(int engines) {
+        if(governor != null) {
+            engines = Math.min(engines, governor.getEngineCount());
+        }
+        int size = engines + abandonedWorkers.get() + spareWorkers.get();
+        if(size > getMaximumPoolSize()) {
+            setMaximumPoolSize(size);
+            setCorePoolSize(size);
+        } else {
+            setCorePoolSize(size);
+            setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Watches recognitions in progress; one running longer than the threshold fails its task with
+     * {@linkplain OcrRecognitionTimeoutException} and its worker thread is abandoned to finish (or hang) on its own
+     * while a replacement worker with a new engine takes its place. Should the recognition return eventually, the
+     * worker rejoins the pool and the replacement is retired. Inputs of such recognitions are available through
+     * {@linkplain #getHungInputs()}.
+     * @param thresholdMillis max time a single recognition may take.
+     */
+    public synchronized void enableWatchdog(long thresholdMillis) {
+        if(thresholdMillis <= 0) {
+            throw new IllegalArgumentException("Invalid watchdog threshold: " + thresholdMillis);
+        }
+        if(isShutdown()) {
+            throw new IllegalStateException("OCR executor has been shut down.");
+        }
+        disableWatchdog();
+        long period = Math.max(10, Math.min(1000, thresholdMillis / 4));
+        watchdogScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ocr-watchdog", true));
+        watchdogScheduler.scheduleWithFixedDelay(new OcrWatchdog(this, thresholdMillis), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void disableWatchdog() {
+        if(watchdogScheduler != null) {
+            watchdogScheduler.shutdownNow();
+            watchdogScheduler = null;
+        }
+    }
+
+    /** Fails the task of a worker stuck in a recognition and brings up a replacement worker. */
+    synchronized void abandonWorker(Thread t, Ocr ocr, String fingerprint) {
+        if(isShutdown() || !threadOcrMap.remove(t, ocr)) {
+            return;
+        }
+        abandonedEngines.put(t, ocr);
+        int engines = getEngineCount();
+        abandonedWorkers.incrementAndGet();
+        resize(engines);
+        abandonedCount.incrementAndGet();
+
+        synchronized (hungInputs) {
+            hungInputs.addLast(fingerprint);
+            if(hungInputs.size() > MAX_HUNG_INPUTS_KEPT) {
+                hungInputs.removeFirst();
+            }
+        }
+
+        Runnable task = runningTasks.get(t);
+        if(task instanceof OcrFutureTask) {
+            ((OcrFutureTask<?>) task).abandon(new OcrRecognitionTimeoutException("OCR recognition abandoned: " + fingerprint));
+        }
+    }
+
+    /** Called on an abandoned worker whose recognition has returned; it takes its engine back and the pool shrinks to its size. */
+    synchronized void rejoinAbandonedWorker(Thread t) {
+        Ocr ocr = abandonedEngines.remove(t);
+        if(ocr == null) {
+            return;
+        }
+        threadOcrMap.put(t, ocr);
+        int engines = getEngineCount();
+        abandonedWorkers.decrementAndGet();
+        resize(engines);
+    }
+
+    /** Number of worker threads abandoned by the watchdog. */
+    public long getAbandonedCount() {
+        return abandonedCount.get();
+    }
+
+    /** Number of abandoned worker threads still stuck in a recognition. */
+    public int getHungWorkerCount() {
+        return abandonedWorkers.get();
+    }
+
+    /** Inputs of the most recent abandoned recognitions with the size and SHA-1 of the files. */
+    public List<String> getHungInputs() {
+        synchronized (hungInputs) {
+            return new ArrayList<String>(hungInputs);
+        }
+    }
+
+    /** Number of engines replaced by recycling. */
+    public long getRecycledCount() {
+        return recycledCount.get();
+    }
+
+    boolean isRecyclingEnabled() {
+        return maxRecognitionsPerEngine > 0 || maxRssGrowthPerEngine > 0;
+    }
+
+    /**
+     * Grows the pool by a spare worker that starts its own engine to take over from the given worker, which keeps its
+     * engine until the spare is ready.
+     * @return false if no spare worker could be started.
+     */
+    synchronized boolean startSpareWorker(Thread t) {
+        if(isShutdown() || !(getThreadFactory() instanceof EngineThreadFactory)) { // other threads do not start spare engines
+            return false;
+        }
+        AtomicBoolean ready = new AtomicBoolean();
+        int engines = getEngineCount();
+        spareWorkers.incrementAndGet();
+        resize(engines);
+        pendingSpares.offer(ready);
+        if(!prestartCoreThread()) {
+            pendingSpares.remove(ready);
+            spareWorkers.decrementAndGet();
+            resize(engines);
+            return false;
+        }
+        retiringWorkers.put(t, ready);
+        return true;
+    }
+
+    /** Called on a new worker thread; starts its engine right away if it is a spare for a retiring worker. */
+    void startSpareEngine() {
+        AtomicBoolean ready = pendingSpares.poll();
+        if(ready == null) {
+            return;
+        }
+        try {
+            if(threadLocalOcr.get() == null) {
+                threadLocalOcr.set(getOcr(Thread.currentThread()));
+            }
+        } catch (Throwable t) {
+            // the engine is started again by the first task of the worker
+        } finally {
+            ready.set(true);
+        }
+    }
+
+    /** Stops the engine of a worker whose spare is ready and shrinks the pool by one so that the worker leaves it. */
+    void retireRecycledWorker(Thread t) {
+        recycleEngine(t);
+        releaseSpareWorker(t);
+    }
+
+    /** Takes the spare of a retiring worker out of the pool size; no-op if the worker is not retiring. */
+    synchronized void releaseSpareWorker(Thread t) {
+        if(retiringWorkers.remove(t) == null) {
+            return;
+        }
+        int engines = getEngineCount();
+        spareWorkers.decrementAndGet();
+        if(!isShutdown()) {
+            resize(engines);
+        }
+    }
+
+    /**
+     * Stops the engine of the current worker thread. A worker that keeps serving starts a new engine on its next task,
+     * so that every engine is started and stopped by the thread that uses it.
+     */
+    void recycleEngine(Thread t) {
+        threadLocalOcr.remove();
+        Ocr old = threadOcrMap.remove(t);
+        if(old != null) {
+            stopEngine(old);
+        }
+        recycledCount.incrementAndGet();
+    }
+
+    void stopEngine(Ocr ocr) {
+        engineUsageMap.remove(ocr);
+        ocr.stopEngine();
+    }
+
     @Override
     protected void beforeExecute(Thread t, Runnable r) {
+        if(r instanceof OcrFutureTask && ((OcrFutureTask<?>) r).isExpired()) {
+            // the task will not run as it is already completed
+            if(((OcrFutureTask<?>) r).expire()) {
+                expiredCount.incrementAndGet();
+            }
+        }
         if(threadLocalOcr.get() == null) {
             threadLocalOcr.set(getOcr(t));
         }
+        runningTasks.put(t, r);
     }
 
     @Override
     protected void afterExecute(Runnable r, Throwable t) {
         super.afterExecute(r, t);
         //System.out.println("Ocr finished.");
+        Thread current = Thread.currentThread();
+        runningTasks.remove(current);
+        if(abandonedEngines.containsKey(current)) {
+            rejoinAbandonedWorker(current);
+        }
+        if(!(r instanceof OcrFutureTask) || ((OcrFutureTask<?>) r).hasRecognized()) {
+            completedRecognitionCount.incrementAndGet();
+        }
+        if(t != null) {
+            // the worker thread dies with t; it stops its engine while it still can, whatever thread factory made it
+            retireEngine(current);
+            return;
+        }
+        AtomicBoolean spareReady = retiringWorkers.get(current);
+        if(spareReady != null) {
+            if(spareReady.get()) {
+                retireRecycledWorker(current);
+            }
+        } else if(isRecyclingEnabled() && !isShutdown()) {
+            Ocr ocr = threadOcrMap.get(current);
+            EngineUsage usage = ocr == null ? null : engineUsageMap.get(ocr);
+            if(usage != null && usage.shouldRecycle(++usage.recognitions) && !startSpareWorker(current)) {
+                recycleEngine(current);
+            }
+        }
     }
 
     @Override
     protected void terminated() {
         super.terminated();
         // Can not stop here as the JVM will crash silently without any error message.
-        // stopOcrEngines();
+        // Each worker thread stops its own engine once it exits; see EngineThreadFactory.
     }
 
+    /**
+     * Stops accepting new tasks; queued and running tasks are completed. Each worker thread then stops its own engine
+     * before exiting. Use {@linkplain #awaitTermination(long, TimeUnit)} to wait for all engines to be stopped.
+     */
     @Override
     public void shutdown() {
         super.shutdown();
-        stopOcrEngines();
+        disableAdaptiveSizing();
+        disableWatchdog();
     }
 
+    /**
+     * Stops accepting new tasks and removes queued tasks. Recognitions in progress can not be interrupted and are
+     * completed; worker threads then stop their engines as with {@linkplain #shutdown()}.
+     * @return tasks that never commenced execution
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        disableAdaptiveSizing();
+        disableWatchdog();
+        return tasks;
+    }
+
+    /** Returns true once all tasks have completed and all engines have been stopped. */
+    @Override
+    public boolean isTerminated() {
+        if(!super.isTerminated()) {
+            return false;
+        }
+        engineThreadLock.lock();
+        try {
+            return liveEngineThreads == 0;
+        } finally {
+            engineThreadLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until all tasks have completed and every worker thread has stopped its engine after a shutdown request,
+     * or the timeout occurs.
+     * @return true if terminated with all engines stopped; false if the timeout elapsed first.
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if(!super.awaitTermination(timeout, unit)) {
+            return false;
+        }
+        engineThreadLock.lock();
+        try {
+            while(liveEngineThreads > 0) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) {
+                    return false;
+                }
+                engineThreadsStopped.awaitNanos(remaining);
+            }
+        } finally {
+            engineThreadLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Stops all OCR engines from the calling thread.
+     * @deprecated engines are stopped by their worker threads on {@linkplain #shutdown()}; stopping an engine from
+     * another thread while it is recognizing may crash the JVM.
+     */
+    @Deprecated
     public void stopOcrEngines() {
         // stop all OCR engines
         for(Ocr ocr : threadOcrMap.values()) {
@@ -103,11 +668,491 @@ public class OcrExecutorService extends ThreadPoolExecutor {
         //System.out.println("All stopped.");
     }
 
+    @Override
+    public void execute(Runnable command) {
+        if(governor != null && !isShutdown() && !governor.hasMemoryHeadroom()) {
+            rejectedForMemory(command);
+            return;
+        }
+        super.execute(command);
+    }
+
+    /** Applies {@linkplain #rejectionPolicy} to a task submitted while there is not enough memory headroom. */
+    void rejectedForMemory(Runnable r) {
+        switch (rejectionPolicy) {
+            case BLOCK:
+                blockedCount.incrementAndGet();
+                try {
+                    while(!governor.hasMemoryHeadroom()) {
+                        if(isShutdown()) {
+                            throw reject("OCR executor has been shut down.");
+                        }
+                        Thread.sleep(MEMORY_HEADROOM_POLL_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw reject("Interrupted while waiting for memory headroom.");
+                }
+                super.execute(r);
+                break;
+
+            case CALLER_RUNS:
+                callerRunsCount.incrementAndGet();
+                runOnCallerThread(r);
+                break;
+
+            default:
+                throw reject("Not enough memory headroom below the container limit to admit another OCR task.");
+        }
+    }
+
+    /** Resource limits this executor is sized to or null. */
+    public OcrResourceGovernor getResourceGovernor() {
+        return governor;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new OcrFutureTask<T>(this, callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new OcrFutureTask<T>(this, runnable, value);
+    }
+
+    @Override
+    public <T> OcrFuture<T> submit(Callable<T> task) {
+        if(task instanceof OcrCallable && ((OcrCallable) task).blankPageFilter == null) {
+            ((OcrCallable) task).blankPageFilter = blankPageFilter;
+        }
+        return (OcrFuture<T>) super.submit(task);
+    }
+
+    /**
+     * Asynchronous version of {@linkplain Ocr#recognize(File[], String, String, Object...)} performed by the engine of a worker thread.
+     * @return future of the recognition output
+     */
+    public OcrFuture<String> recognizeAsync(File[] files, String recognizeType, String outputFormat, Object... propSpec) {
+        return submit(new OcrCallable(files, recognizeType, outputFormat, propSpec));
+    }
+
+    /**
+     * Asynchronous version of {@linkplain Ocr#recognize(URL[], String, String, Object...)} performed by the engine of a worker thread.
+     * @return future of the recognition output
+     */
+    public OcrFuture<String> recognizeAsync(URL[] sources, String recognizeType, String outputFormat, Object... propSpec) {
+        return submit(new OcrCallable(sources, recognizeType, outputFormat, propSpec));
+    }
+
+    /**
+     * Asynchronous version of {@linkplain Ocr#recognize(RenderedImage, String, String, Object...)} performed by the engine of a worker thread.
+     * @return future of the recognition output
+     */
+    public OcrFuture<String> recognizeAsync(RenderedImage img, String recognizeType, String outputFormat, Object... propSpec) {
+        return recognizeAsync(img, new OcrCallable((RenderedImage) null, recognizeType, outputFormat, propSpec));
+    }
+
+    /**
+     * Asynchronous version of {@linkplain Ocr#recognize(RenderedImage, int, String, String, Object...)} performed by the engine of a worker thread.
+     * @return future of the recognition output
+     */
+    public OcrFuture<String> recognizeAsync(RenderedImage img, int dpi, String recognizeType, String outputFormat, Object... propSpec) {
+        return recognizeAsync(img, new OcrCallable((RenderedImage) null, recognizeType, outputFormat, propSpec).setDpi(dpi));
+    }
+
+    /** Submits the callable with the given image, normalized first if a normalizer is set. */
+    OcrFuture<String> recognizeAsync(RenderedImage img, OcrCallable callable) {
+        ImageNormalizer normalizer = imageNormalizer;
+        if(normalizer == null) {
+            callable.img = img;
+            return submit(callable);
+        }
+        return recognizeNormalizedAsync(normalizer, img, callable);
+    }
+
+    /** Normalizes the image on the pool of the normalizer, then submits the callable with the normalized image. */
+    OcrFuture<String> recognizeNormalizedAsync(final ImageNormalizer normalizer, final RenderedImage img, final OcrCallable callable) {
+        final OcrFuture<String> result = new OcrFuture<String>();
+        try {
+            normalizer.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(result.isDone()) { // cancelled meanwhile
+                        return;
+                    }
+                    try {
+                        callable.img = normalizer.normalize(img, callable.dpi, callable.wholePage);
+                        callable.sourceWidth = img.getWidth();
+                        callable.sourceHeight = img.getHeight();
+                        final OcrFuture<String> recognition = submit(callable);
+                        recognition.addCallback(new OcrFuture.Callback<String>() {
+                            @Override
+                            public void onSuccess(String s) {
+                                result.complete(s);
+                            }
+
+                            @Override
+                            public void onFailure(Throwable t) {
+                                result.fail(t);
+                            }
+                        });
+                        result.addListener(new Runnable() {
+                            @Override
+                            public void run() {
+                                if(result.isCancelled()) {
+                                    recognition.cancel(false);
+                                }
+                            }
+                        }, null);
+                    } catch (Throwable t) {
+                        result.fail(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) { // normalizer shut down
+            result.fail(e);
+        }
+        return result;
+    }
+
+    /**
+     * Sets the normalization applied to images submitted through
+     * {@linkplain #recognizeAsync(RenderedImage, String, String, Object...)}. Images are normalized on the pool of the
+     * normalizer and queued for an engine only once done, so engines never wait for normalization. Coordinates in xml
+     * output are scaled back to the submitted image; tiles of {@linkplain OcrTiledRecognizer} are never resized.
+     * @param normalizer the normalizer or null for none (default).
+     */
+    public void setImageNormalizer(ImageNormalizer normalizer) {
+        this.imageNormalizer = normalizer;
+    }
+
+    public ImageNormalizer getImageNormalizer() {
+        return imageNormalizer;
+    }
+
+    /**
+     * Sets the filter that returns an empty result for blank pages instead of recognizing them. Applies to
+     * {@linkplain OcrCallable} tasks, including the pages of {@linkplain OcrPageFanOut} and {@linkplain OcrPagePublisher},
+     * that recognize whole pages of a single file or an image in plain text or xml format.
+     * See {@linkplain BlankPageFilter#getSkipRate()} for the share of pages skipped.
+     * @param filter the filter or null to recognize all pages (default).
+     */
+    public void setBlankPageFilter(BlankPageFilter filter) {
+        this.blankPageFilter = filter;
+    }
+
+    public BlankPageFilter getBlankPageFilter() {
+        return blankPageFilter;
+    }
+
+    /**
+     * Asynchronous version of {@linkplain Ocr#recognize(byte[], String, String, Object...)} performed by the engine of a worker thread.
+     * @return future of the recognition output
+     */
+    public OcrFuture<String> recognizeAsync(byte[] data, String recognizeType, String outputFormat, Object... propSpec) {
+        return submit(new OcrCallable(data, recognizeType, outputFormat, propSpec));
+    }
+
+    /**
+     * Asynchronous version of {@linkplain Ocr#recognize(String, int, int, int, int, int, String, String, Object...)} performed by the engine of a worker thread.
+     * @return future of the recognition output
+     */
+    public OcrFuture<String> recognizeAsync(String files, int pageIndex, int startX, int startY, int width, int height, String recognizeType, String outputFormat, Object... propSpec) {
+        return submit(new OcrCallable(files, pageIndex, startX, startY, width, height, recognizeType, outputFormat, propSpec)
+            .setRegionCache(regionCache));
+    }
+
+    /**
+     * Sets the cache of decoded pages used by region recognitions submitted through
+     * {@linkplain #recognizeAsync(String, int, int, int, int, int, String, String, Object...)}; see
+     * {@linkplain Ocr#recognizeRegion(File, int, int, int, int, int, DecodedPageCache, String, String, Object...)}.
+     * @param cache the cache or null to let the engines decode each page themselves (default).
+     */
+    public void setRegionCache(DecodedPageCache cache) {
+        this.regionCache = cache;
+    }
+
+    public DecodedPageCache getRegionCache() {
+        return regionCache;
+    }
+
+    /**
+     * Sets how long a queued task waits before it is promoted by one priority class, so that bulk work is never starved.
+     * @param agingMillis aging interval; 0 to serve strictly by priority.
+     */
+    public void setPriorityAging(long agingMillis) {
+        ((OcrTaskQueue) getQueue()).setAgingMillis(agingMillis);
+    }
+
+    public long getPriorityAging() {
+        return ((OcrTaskQueue) getQueue()).getAgingMillis();
+    }
+
+    /** Number of tasks waiting for an engine in the given priority class. */
+    public int getQueueDepth(Priority priority) {
+        return ((OcrTaskQueue) getQueue()).getCountsByPriority()[priority.ordinal()];
+    }
+
+    void onCancelled(OcrFutureTask<?> task) {
+        cancelledCount.incrementAndGet();
+        remove(task);
+    }
+
+    /**
+     * Fails and removes all queued tasks whose deadline has passed.
+     * @return number of tasks removed.
+     */
+    public int purgeExpired() {
+        int purged = 0;
+        for(Runnable r : getQueue()) {
+            if(r instanceof OcrFutureTask && ((OcrFutureTask<?>) r).isExpired() && getQueue().remove(r)) {
+                if(((OcrFutureTask<?>) r).expire()) {
+                    expiredCount.incrementAndGet();
+                }
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    /** Number of tasks failed with {@linkplain OcrDeadlineExceededException} as their deadline passed while queued. */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /** Number of tasks cancelled through {@linkplain Future#cancel(boolean)}. */
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    /** Changes the policy applied to tasks submitted when the queue is full. */
+    public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        if(rejectionPolicy == null) {
+            throw new IllegalArgumentException("rejectionPolicy can not be null");
+        }
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /** Number of tasks waiting for an engine. */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /** Max number of tasks that can wait for an engine. */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /** Number of tasks rejected with {@linkplain OcrRejectedExecutionException}. */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /** Number of queued tasks cancelled by {@linkplain RejectionPolicy#DROP_OLDEST}. */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /** Number of tasks run on the submitting thread by {@linkplain RejectionPolicy#CALLER_RUNS}. */
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    /** Number of times a submitting thread was blocked by {@linkplain RejectionPolicy#BLOCK}. */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /** Runs the task on the current thread with a temporary engine unless the current thread is one of the workers. */
+    void runOnCallerThread(Runnable r) {
+        if(threadOcrMap.containsKey(Thread.currentThread())) {
+            r.run();
+            return;
+        }
+
+        Ocr previous = threadLocalOcr.get();
+        Ocr ocr = new Ocr();
+        ocr.startEngine(lang, speed);
+        threadLocalOcr.set(ocr);
+        try {
+            r.run();
+        } finally {
+            if(previous == null) {
+                threadLocalOcr.remove();
+            } else {
+                threadLocalOcr.set(previous);
+            }
+            ocr.stopEngine();
+        }
+    }
+
+    OcrRejectedExecutionException reject(String message) {
+        rejectedCount.incrementAndGet();
+        return new OcrRejectedExecutionException(message, getQueueDepth());
+    }
+
+    /** Applies {@linkplain #rejectionPolicy} to tasks that do not fit in the queue. */
+    class OcrRejectedExecutionHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if(isShutdown()) {
+                throw reject("OCR executor has been shut down.");
+            }
+
+            // tasks nobody waits for any more give up their slots first
+            if(purgeExpired() > 0 && getQueue().offer(r)) {
+                return;
+            }
+
+            switch (rejectionPolicy) {
+                case BLOCK:
+                    blockedCount.incrementAndGet();
+                    try {
+                        getQueue().put(r);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw reject("Interrupted while waiting for room in the OCR queue.");
+                    }
+                    if(isShutdown() && getQueue().remove(r)) {
+                        throw reject("OCR executor has been shut down.");
+                    }
+                    break;
+
+                case DROP_OLDEST:
+                    Runnable oldest = ((OcrTaskQueue) getQueue()).pollLeastUrgent();
+                    if(oldest != null) {
+                        droppedCount.incrementAndGet();
+                        if(oldest instanceof OcrFutureTask) {
+                            ((OcrFutureTask<?>) oldest).drop();
+                        } else if(oldest instanceof Future) {
+                            ((Future<?>) oldest).cancel(false);
+                        }
+                    }
+                    execute(r);
+                    break;
+
+                case CALLER_RUNS:
+                    callerRunsCount.incrementAndGet();
+                    runOnCallerThread(r);
+                    break;
+
+                default:
+                    throw reject("OCR queue is full (capacity: " + queueCapacity + ").");
+            }
+        }
+    }
+
+    /** Stops the engine of a worker thread that is about to exit; must be called on that thread. */
+    void retireEngine(Thread t) {
+        threadLocalOcr.remove();
+        Ocr ocr = threadOcrMap.remove(t);
+        if(ocr != null) {
+            stopEngine(ocr);
+        }
+        releaseSpareWorker(t); // left before its spare was ready
+    }
+
+    /**
+     * Stops engines still registered to terminated threads, which would leak otherwise, e.g., if workers are created by
+     * a thread factory other than the default one. This is the only case an engine is stopped by a thread other than
+     * the one that started it: that thread is gone and the engine is no longer in use.
+     */
+    void reclaimDeadThreadEngines() {
+        for(Thread t : threadOcrMap.keySet()) {
+            if(!t.isAlive()) {
+                Ocr ocr = threadOcrMap.remove(t);
+                if(ocr != null) {
+                    leakedEngineCount.incrementAndGet();
+                    stopEngine(ocr);
+                }
+            }
+        }
+    }
+
+    /** Number of engines found registered to worker threads that had terminated without releasing them. */
+    public long getLeakedEngineCount() {
+        return leakedEngineCount.get();
+    }
+
+    void engineThreadStarted() {
+        engineThreadLock.lock();
+        try {
+            liveEngineThreads++;
+        } finally {
+            engineThreadLock.unlock();
+        }
+    }
+
+    void engineThreadStopped() {
+        engineThreadLock.lock();
+        try {
+            liveEngineThreads--;
+            engineThreadsStopped.signalAll();
+        } finally {
+            engineThreadLock.unlock();
+        }
+    }
+
+    /** Usage of an engine since it was started. */
+    class EngineUsage {
+        final long rssAtStart = Utils.getResidentSetSize();
+        /** Only accessed by the thread owning the engine. */
+        int recognitions;
+
+        boolean shouldRecycle(int recognitions) {
+            if(maxRecognitionsPerEngine > 0 && recognitions >= maxRecognitionsPerEngine) {
+                return true;
+            }
+            if(maxRssGrowthPerEngine > 0 && rssAtStart > 0) {
+                long rss = Utils.getResidentSetSize();
+                return rss > 0 && rss - rssAtStart > maxRssGrowthPerEngine;
+            }
+            return false;
+        }
+    }
+
+    /** Creates worker threads that pre-start their engines if requested. */
+    class EngineThreadFactory implements ThreadFactory {
+        final ThreadFactory delegate = new NamedThreadFactory("ocr-worker", false);
+
+        @Override
+        public Thread newThread(final Runnable worker) {
+            return delegate.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    engineThreadStarted();
+                    try {
+                        if(prestartEngines) {
+                            prestartEngine();
+                        }
+                        startSpareEngine();
+                        worker.run();
+                    } finally {
+                        // the pool shrank or is shut down; the engine is stopped on the thread that uses it
+                        try {
+                            retireEngine(Thread.currentThread());
+                        } finally {
+                            engineThreadStopped();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Represents an OCR task.
      */
     public static class OcrCallable implements Callable<String> {
         File[] files;
+        URL[] sources;
+        RenderedImage img;
+        byte[] data;
         String recognizeType;
         String outputFormat;
         Object[] propSpec;
@@ -119,6 +1164,18 @@ public class OcrExecutorService extends ThreadPoolExecutor {
         int width;
         int height;
 
+        String lang;
+        Priority priority = Priority.STANDARD;
+        long deadline;
+        DecodedPageCache regionCache;
+        BlankPageFilter blankPageFilter;
+        boolean wholePage = true;
+        int dpi;
+        int sourceWidth; // size of the image before normalization, 0 if not normalized
+        int sourceHeight;
+        /** Set by the worker once the input is handed over to the engine. */
+        boolean recognized;
+
         /**
          * See {@linkplain com.asprise.ocr.Ocr#recognize(java.io.File[], String, String, Object...)}
          * @param files
@@ -133,6 +1190,48 @@ public class OcrExecutorService extends ThreadPoolExecutor {
             this.propSpec = propSpec;
         }
 
+        /**
+         * See {@linkplain com.asprise.ocr.Ocr#recognize(java.net.URL[], String, String, Object...)}
+         * @param sources
+         * @param recognizeType
+         * @param outputFormat
+         * @param propSpec
+         */
+        public OcrCallable(URL[] sources, String recognizeType, String outputFormat, Object... propSpec) {
+            this.sources = sources;
+            this.recognizeType = recognizeType;
+            this.outputFormat = outputFormat;
+            this.propSpec = propSpec;
+        }
+
+        /**
+         * See {@linkplain com.asprise.ocr.Ocr#recognize(java.awt.image.RenderedImage, String, String, Object...)}
+         * @param img
+         * @param recognizeType
+         * @param outputFormat
+         * @param propSpec
+         */
+        public OcrCallable(RenderedImage img, String recognizeType, String outputFormat, Object... propSpec) {
+            this.img = img;
+            this.recognizeType = recognizeType;
+            this.outputFormat = outputFormat;
+            this.propSpec = propSpec;
+        }
+
+        /**
+         * See {@linkplain com.asprise.ocr.Ocr#recognize(byte[], String, String, Object...)}
+         * @param data
+         * @param recognizeType
+         * @param outputFormat
+         * @param propSpec
+         */
+        public OcrCallable(byte[] data, String recognizeType, String outputFormat, Object... propSpec) {
+            this.data = data;
+            this.recognizeType = recognizeType;
+            this.outputFormat = outputFormat;
+            this.propSpec = propSpec;
+        }
+
         /**
          * See {@linkplain com.asprise.ocr.Ocr#recognize(String, int, int, int, int, int, String, String, Object...)}
          * @param files
@@ -157,6 +1256,87 @@ public class OcrExecutorService extends ThreadPoolExecutor {
             this.propSpec = propSpec;
         }
 
+        /** Sets the language used by {@linkplain OcrRoutingExecutorService} to pick the engines for this task. */
+        public OcrCallable setLanguage(String lang) {
+            this.lang = lang;
+            return this;
+        }
+
+        public String getLanguage() {
+            return lang;
+        }
+
+        /** Sets the priority class used to order this task in the queue; default is {@linkplain Priority#STANDARD}. */
+        public OcrCallable setPriority(Priority priority) {
+            if(priority == null) {
+                throw new IllegalArgumentException("priority can not be null");
+            }
+            this.priority = priority;
+            return this;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * Sets the absolute deadline of this task; if no engine picks up the task before the deadline, the task fails with
+         * {@linkplain OcrDeadlineExceededException} without being recognized.
+         * @param deadlineMillis milliseconds since epoch or 0 for no deadline.
+         */
+        public OcrCallable setDeadline(long deadlineMillis) {
+            this.deadline = deadlineMillis;
+            return this;
+        }
+
+        /** Sets the deadline to the given time from now. */
+        public OcrCallable setTimeout(long timeout, TimeUnit unit) {
+            return setDeadline(System.currentTimeMillis() + unit.toMillis(timeout));
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Sets the cache of decoded pages to crop the region from if this task recognizes a region of a page of a single
+         * file; see {@linkplain Ocr#recognizeRegion(File, int, int, int, int, int, DecodedPageCache, String, String, Object...)}.
+         */
+        public OcrCallable setRegionCache(DecodedPageCache cache) {
+            this.regionCache = cache;
+            return this;
+        }
+
+        /** Sets the resolution of the image of this task; 0 if unknown (default). */
+        public OcrCallable setDpi(int dpi) {
+            this.dpi = dpi;
+            return this;
+        }
+
+        /**
+         * Marks the image of this task as a part of a page, e.g., a tile of {@linkplain OcrTiledRecognizer}, or as a
+         * whole page (default). Only whole pages are skipped by the {@linkplain BlankPageFilter} or resized by the
+         * {@linkplain ImageNormalizer}.
+         */
+        public OcrCallable setWholePage(boolean wholePage) {
+            this.wholePage = wholePage;
+            return this;
+        }
+
+        /** Returns the empty result if the page of this task is blank; null otherwise. */
+        String skipIfBlank() {
+            if(blankPageFilter == null) {
+                return null;
+            } else if(files != null) {
+                return files.length == 1 ? blankPageFilter.skipIfBlank(files[0].getAbsolutePath(), -1, true, outputFormat) : null;
+            } else if(img != null) {
+                return blankPageFilter.skipIfBlank(img, wholePage, outputFormat);
+            } else if(filesString != null) {
+                return blankPageFilter.skipIfBlank(filesString, pageIndex, startX < 0, outputFormat);
+            }
+            return null;
+        }
+
         @Override
         public String call() throws Exception {
             Ocr ocr = threadLocalOcr.get();
@@ -164,8 +1344,28 @@ public class OcrExecutorService extends ThreadPoolExecutor {
                 throw new RuntimeException("Internal error. Ocr is not found in thread local.");
             }
 
+            String skipped = skipIfBlank();
+            if(skipped != null) {
+                return skipped;
+            }
+            recognized = true;
+
             if(files != null) {
                 return ocr.recognize(files, recognizeType, outputFormat, propSpec);
+            } else if(sources != null) {
+                return ocr.recognize(sources, recognizeType, outputFormat, propSpec);
+            } else if(img != null) {
+                if(sourceWidth > 0) { // normalized by the executor
+                    String s = ocr.recognizeImage(img, 0, wholePage, recognizeType, outputFormat, propSpec);
+                    return Ocr.toSourceCoordinates(s, outputFormat, sourceWidth, sourceHeight, img);
+                }
+                return ocr.recognizeImage(img, dpi, wholePage, recognizeType, outputFormat, propSpec);
+            } else if(data != null) {
+                return ocr.recognize(data, recognizeType, outputFormat, propSpec);
+            } else if(regionCache != null && filesString != null && filesString.indexOf(',') < 0
+                && pageIndex > 0 && startX >= 0 && startY >= 0 && width > 0 && height > 0) {
+                return ocr.recognizeRegion(new File(filesString), pageIndex, startX, startY, width, height, regionCache,
+                    recognizeType, outputFormat, propSpec);
             } else {
                 return ocr.recognize(filesString, pageIndex, startX, startY, width, height, recognizeType, outputFormat, propSpec);
             }
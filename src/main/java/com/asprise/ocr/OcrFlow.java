@@ -0,0 +1,53 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+/**
+ * Interfaces for demand-driven streams of results; they have the same methods and contract as those of
+ * <code>java.util.concurrent.Flow</code> (Java 9+) and Reactive Streams, so adapting them takes a one-line delegate.
+ */
+public final class OcrFlow {
+
+    private OcrFlow() {
+    }
+
+    /** A producer of items received by a {@linkplain Subscriber} according to its demand. */
+    public static interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /** A receiver of items; the methods of a subscriber are invoked serially. */
+    public static interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /** Links a publisher and a subscriber. */
+    public static interface Subscription {
+        /** Adds n items to the demand; n must be positive. */
+        void request(long n);
+
+        /** Stops the flow of items; outstanding work may be dropped. */
+        void cancel();
+    }
+}
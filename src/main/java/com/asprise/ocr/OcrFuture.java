@@ -0,0 +1,219 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A future that accepts callbacks and can be chained, so that results can be post-processed without blocking a thread.
+ * <p>Callbacks registered without an executor run on the thread completing the future (usually an engine worker
+ * thread) or immediately on the registering thread if the future has already completed; pass an executor for
+ * anything more than light work so that engines are not held up.</p>
+ * <pre>executor.recognizeAsync(files, Ocr.RECOGNIZE_TYPE_ALL, Ocr.OUTPUT_FORMAT_XML)
+ *     .then(new OcrFuture.Function&lt;String, Document&gt;() {
+ *         public Document apply(String xml) throws Exception { return parse(xml); }
+ *     }, postProcessingExecutor)
+ *     .addCallback(new OcrFuture.Callback&lt;Document&gt;() {
+ *         public void onSuccess(Document doc) { index(doc); }
+ *         public void onFailure(Throwable t) { t.printStackTrace(); }
+ *     });</pre>
+ */
+public class OcrFuture<V> extends FutureTask<V> {
+
+    /** Receives the outcome of a future. */
+    public static interface Callback<V> {
+        void onSuccess(V result);
+
+        /** Called with the cause of the failure, or a {@linkplain CancellationException} if the future was cancelled. */
+        void onFailure(Throwable t);
+    }
+
+    /** Transforms the result of a future. */
+    public static interface Function<V, R> {
+        R apply(V value) throws Exception;
+    }
+
+    static final Callable<Object> NOT_RUNNABLE = new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+            throw new IllegalStateException("This future is completed explicitly.");
+        }
+    };
+
+    /** Null once listeners have been fired. */
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    protected OcrFuture(Callable<V> callable) {
+        super(callable);
+    }
+
+    protected OcrFuture(Runnable runnable, V result) {
+        super(runnable, result);
+    }
+
+    /** A future completed explicitly through {@linkplain #complete(Object)} or {@linkplain #fail(Throwable)}. */
+    @SuppressWarnings("unchecked")
+    OcrFuture() {
+        super((Callable<V>) NOT_RUNNABLE);
+    }
+
+    /** Returns a future already completed with the given value. */
+    public static <V> OcrFuture<V> completed(V value) {
+        OcrFuture<V> future = new OcrFuture<V>();
+        future.complete(value);
+        return future;
+    }
+
+    /** Returns a future already failed with the given cause. */
+    public static <V> OcrFuture<V> failed(Throwable t) {
+        OcrFuture<V> future = new OcrFuture<V>();
+        future.fail(t);
+        return future;
+    }
+
+    void complete(V value) {
+        set(value);
+    }
+
+    void fail(Throwable t) {
+        setException(t);
+    }
+
+    /**
+     * Registers a callback to run on the completing thread once this future completes.
+     * @return this future
+     */
+    public OcrFuture<V> addCallback(Callback<? super V> callback) {
+        return addCallback(callback, null);
+    }
+
+    /**
+     * Registers a callback to run on the given executor once this future completes.
+     * @param executor executor to run the callback or null to run it on the completing thread.
+     * @return this future
+     */
+    public OcrFuture<V> addCallback(final Callback<? super V> callback, Executor executor) {
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                V result;
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    callback.onFailure(e.getCause());
+                    return;
+                } catch (CancellationException e) {
+                    callback.onFailure(e);
+                    return;
+                } catch (InterruptedException e) { // can not happen as the future is done
+                    Thread.currentThread().interrupt();
+                    callback.onFailure(e);
+                    return;
+                }
+                callback.onSuccess(result);
+            }
+        }, executor);
+        return this;
+    }
+
+    /**
+     * Returns a future of the result of this future transformed by the given function, which runs on the completing thread.
+     * A failure of this future or of the function fails the returned future.
+     */
+    public <R> OcrFuture<R> then(Function<? super V, ? extends R> function) {
+        return then(function, null);
+    }
+
+    /**
+     * Returns a future of the result of this future transformed by the given function, which runs on the given executor.
+     * A failure of this future or of the function fails the returned future.
+     * @param executor executor to run the function or null to run it on the completing thread.
+     */
+    public <R> OcrFuture<R> then(final Function<? super V, ? extends R> function, Executor executor) {
+        final OcrFuture<R> next = new OcrFuture<R>();
+        addCallback(new Callback<V>() {
+            @Override
+            public void onSuccess(V result) {
+                try {
+                    next.complete(function.apply(result));
+                } catch (Throwable t) {
+                    next.fail(t);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                next.fail(t);
+            }
+        }, executor);
+        return next;
+    }
+
+    /** Runs the listener once this future completes, immediately if it already has. */
+    void addListener(Runnable listener, Executor executor) {
+        Runnable toRun = executor == null ? listener : new ExecutorListener(listener, executor);
+        synchronized (this) {
+            if(listeners != null) {
+                listeners.add(toRun);
+                return;
+            }
+        }
+        runListener(toRun);
+    }
+
+    @Override
+    protected void done() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            toRun = listeners;
+            listeners = null;
+        }
+        for(Runnable listener : toRun) {
+            runListener(listener);
+        }
+    }
+
+    static void runListener(Runnable listener) {
+        try {
+            listener.run();
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    static class ExecutorListener implements Runnable {
+        final Runnable listener;
+        final Executor executor;
+
+        ExecutorListener(Runnable listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            executor.execute(listener);
+        }
+    }
+}
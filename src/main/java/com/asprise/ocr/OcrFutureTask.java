@@ -0,0 +1,110 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Future of a task submitted to {@linkplain OcrExecutorService}; carries the scheduling attributes of the task.
+ */
+class OcrFutureTask<V> extends OcrFuture<V> {
+
+    final OcrExecutorService executor;
+    final OcrExecutorService.Priority priority;
+    /** Absolute deadline in milliseconds since epoch or 0 if none. */
+    final long deadline;
+    /** The callable if it is an {@linkplain OcrExecutorService.OcrCallable}; null otherwise. */
+    final OcrExecutorService.OcrCallable ocrCallable;
+    /** Set by the worker once it starts the task; false for tasks expired or cancelled before. */
+    boolean started;
+
+    OcrFutureTask(OcrExecutorService executor, Callable<V> callable) {
+        super(callable);
+        this.executor = executor;
+        if(callable instanceof OcrExecutorService.OcrCallable) {
+            OcrExecutorService.OcrCallable ocrCallable = (OcrExecutorService.OcrCallable) callable;
+            this.priority = ocrCallable.priority;
+            this.deadline = ocrCallable.deadline;
+            this.ocrCallable = ocrCallable;
+        } else {
+            this.priority = OcrExecutorService.Priority.STANDARD;
+            this.deadline = 0;
+            this.ocrCallable = null;
+        }
+    }
+
+    OcrFutureTask(OcrExecutorService executor, Runnable runnable, V result) {
+        super(runnable, result);
+        this.executor = executor;
+        this.priority = OcrExecutorService.Priority.STANDARD;
+        this.deadline = 0;
+        this.ocrCallable = null;
+    }
+
+    @Override
+    public void run() {
+        started = !isDone();
+        super.run();
+    }
+
+    /**
+     * Returns true if running the task used the engine, i.e., it was neither expired nor cancelled before it started
+     * and, for an {@linkplain OcrExecutorService.OcrCallable}, its input was not skipped as blank. Call from the worker
+     * thread after the task has run.
+     */
+    boolean hasRecognized() {
+        return ocrCallable != null ? ocrCallable.recognized : started;
+    }
+
+    boolean isExpired() {
+        return deadline > 0 && System.currentTimeMillis() > deadline;
+    }
+
+    /** Fails the task with {@linkplain OcrDeadlineExceededException} unless it has already completed. */
+    boolean expire() {
+        if(isDone()) {
+            return false;
+        }
+        setException(new OcrDeadlineExceededException("Deadline passed " + (System.currentTimeMillis() - deadline) + "ms ago before an OCR engine became available."));
+        return true;
+    }
+
+    /** Fails the task while it is still running, e.g., when its recognition hangs. */
+    boolean abandon(Throwable cause) {
+        if(isDone()) {
+            return false;
+        }
+        setException(cause);
+        return true;
+    }
+
+    /** Cancels the task on behalf of the executor, e.g., to make room in the queue. */
+    boolean drop() {
+        return super.cancel(false);
+    }
+
+    /** Also removes the task from the queue so that it no longer takes a slot. */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if(cancelled) {
+            executor.onCancelled(this);
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,143 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import com.asprise.ocr.util.DocumentPages;
+import com.asprise.ocr.util.OcrResultMerger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Recognizes multi-page documents (TIFF, PDF) page by page in parallel on the engines of an
+ * {@linkplain OcrExecutorService} and merges the results in page order.
+ * <p>Each page is a separate task with its own page index, so the latency of a long document is roughly inversely
+ * proportional to the number of engines. Pages are submitted through a window of at most
+ * <code>maxPagesInFlight</code> tasks so that a long document neither floods the queue nor starves other work.
+ * PDF and RTF output can not be merged, so documents are recognized as a whole in these formats, as are files
+ * whose pages can not be counted.</p>
+ * <pre>String text = new OcrPageFanOut(executor).recognize(new File[] {pdf}, Ocr.RECOGNIZE_TYPE_TEXT, Ocr.OUTPUT_FORMAT_PLAINTEXT);</pre>
+ * <p>See {@linkplain OcrPagePublisher} to process the page results as they complete instead.</p>
+ */
+public class OcrPageFanOut {
+
+    final OcrExecutorService executor;
+    final int maxPagesInFlight;
+
+    /** At most twice as many pages as the executor has engines are in flight. */
+    public OcrPageFanOut(OcrExecutorService executor) {
+        this(executor, 2 * executor.getMaximumPoolSize());
+    }
+
+    /**
+     * @param executor executor whose engines recognize the pages
+     * @param maxPagesInFlight max number of pages submitted but not yet collected
+     */
+    public OcrPageFanOut(OcrExecutorService executor, int maxPagesInFlight) {
+        if(maxPagesInFlight < 1) {
+            throw new IllegalArgumentException("Invalid max pages in flight: " + maxPagesInFlight);
+        }
+        this.executor = executor;
+        this.maxPagesInFlight = maxPagesInFlight;
+    }
+
+    /**
+     * Performs text/barcode recognition on all pages of the given files and waits for the result.
+     * @param files input files - files must exist
+     * @param recognizeType valid values: {@linkplain Ocr#RECOGNIZE_TYPE_TEXT}, {@linkplain Ocr#RECOGNIZE_TYPE_BARCODE} or {@linkplain Ocr#RECOGNIZE_TYPE_ALL}.
+     * @param outputFormat valid values: {@linkplain Ocr#OUTPUT_FORMAT_PLAINTEXT}, {@linkplain Ocr#OUTPUT_FORMAT_XML}, {@linkplain Ocr#OUTPUT_FORMAT_PDF} or {@linkplain Ocr#OUTPUT_FORMAT_RTF}
+     * @param propSpec additional properties, can be a single {@linkplain java.util.Properties} object or inline specification in pairs or a single string. Valid property names are defined in {@linkplain Ocr}, etc.
+     * @return the recognition output in the specified format or <pre>null</pre> if there is no input file.
+     */
+    public String recognize(File[] files, String recognizeType, String outputFormat, Object... propSpec) {
+        if(files == null || files.length == 0) {
+            return null;
+        }
+        if(!OcrResultMerger.canMerge(outputFormat)) {
+            return get(executor.recognizeAsync(files, recognizeType, outputFormat, propSpec), files[0], -1);
+        }
+
+        List<String> results = new ArrayList<String>();
+        LinkedList<PageTask> inFlight = new LinkedList<PageTask>();
+        try {
+            for(File file : files) {
+                int pageCount = countPages(file);
+                for(int page = 1; page <= pageCount; page++) {
+                    if(inFlight.size() >= maxPagesInFlight) {
+                        results.add(inFlight.removeFirst().get());
+                    }
+                    int pageIndex = pageCount > 1 ? page : -1; // whole file if it has a single page or can not be counted
+                    inFlight.add(new PageTask(file, pageIndex, executor.recognizeAsync(file.getAbsolutePath(), pageIndex, -1, -1, -1, -1,
+                        recognizeType, outputFormat, propSpec)));
+                }
+            }
+            while(!inFlight.isEmpty()) {
+                results.add(inFlight.removeFirst().get());
+            }
+        } finally {
+            for(PageTask task : inFlight) {
+                task.future.cancel(false);
+            }
+        }
+        return OcrResultMerger.merge(results, outputFormat);
+    }
+
+    /** Returns the page count or 1 to recognize the file as a whole if it can not be counted. */
+    static int countPages(File file) {
+        try {
+            return Math.max(1, DocumentPages.countPages(file));
+        } catch (IOException e) {
+            return 1;
+        }
+    }
+
+    static String get(Future<String> future, File file, int page) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OcrException("Interrupted while waiting for " + file, e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof OcrException) {
+                throw (OcrException) e.getCause();
+            }
+            throw new OcrException("Failed to recognize " + file + (page > 0 ? " page " + page : "") + ": " + e.getCause(), e.getCause());
+        }
+    }
+
+    static class PageTask {
+        final File file;
+        final int page;
+        final Future<String> future;
+
+        PageTask(File file, int page, Future<String> future) {
+            this.file = file;
+            this.page = page;
+            this.future = future;
+        }
+
+        String get() {
+            return OcrPageFanOut.get(future, file, page);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import com.asprise.ocr.util.DocumentPages;
+import com.asprise.ocr.util.NamedThreadFactory;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the result of each page of a multi-page document (TIFF, PDF) as soon as it is recognized.
+ * <p>Pages are recognized in parallel by the engines of an {@linkplain OcrExecutorService}. No more pages are
+ * in flight than the subscriber has requested (and never more than <code>maxPagesInFlight</code>), so a slow
+ * subscriber holds back recognition instead of accumulating results in memory. Results are emitted either strictly
+ * in page order or in the order pages complete; results completed by engines are delivered on a separate executor
+ * (see {@linkplain #setSignalExecutor(Executor)}), never on an engine thread.</p>
+ * <pre>new OcrPagePublisher(executor, new File("long.tif"), true, Ocr.RECOGNIZE_TYPE_TEXT, Ocr.OUTPUT_FORMAT_XML)
+ *     .subscribe(indexingSubscriber);</pre>
+ */
+public class OcrPagePublisher implements OcrFlow.Publisher<OcrPagePublisher.PageResult> {
+
+    /** Result of a single page. */
+    public static class PageResult {
+        final int pageIndex;
+        final int pageCount;
+        final String result;
+
+        PageResult(int pageIndex, int pageCount, String result) {
+            this.pageIndex = pageIndex;
+            this.pageCount = pageCount;
+            this.result = result;
+        }
+
+        /** Index of the page, starting from 1. */
+        public int getPageIndex() {
+            return pageIndex;
+        }
+
+        /** Total number of pages of the document. */
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        /** Recognition output of the page in the requested format. */
+        public String getResult() {
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Page " + pageIndex + "/" + pageCount;
+        }
+    }
+
+    final OcrExecutorService executor;
+    final File file;
+    final boolean ordered;
+    final int maxPagesInFlight;
+    final String recognizeType;
+    final String outputFormat;
+    final Object[] propSpec;
+
+    final AtomicBoolean subscribed = new AtomicBoolean();
+    volatile Executor signalExecutor;
+
+    /** Delivers signals of pages completed by engines unless {@linkplain #setSignalExecutor(Executor)} is called. */
+    static volatile Executor defaultSignalExecutor;
+
+    /**
+     * Creates a publisher of the pages of the given document; at most as many pages as the executor has engines are in flight.
+     * @param executor executor to recognize pages
+     * @param file multi-page document, e.g., TIFF or PDF
+     * @param ordered true to emit results strictly in page order; false to emit them as they complete.
+     * @param recognizeType valid values: {@linkplain Ocr#RECOGNIZE_TYPE_TEXT}, {@linkplain Ocr#RECOGNIZE_TYPE_BARCODE} or {@linkplain Ocr#RECOGNIZE_TYPE_ALL}.
+     * @param outputFormat valid values: {@linkplain Ocr#OUTPUT_FORMAT_PLAINTEXT} or {@linkplain Ocr#OUTPUT_FORMAT_XML}.
+     * @param propSpec additional properties, see {@linkplain Ocr#recognize(String, int, int, int, int, int, String, String, Object...)}
+     */
+    public OcrPagePublisher(OcrExecutorService executor, File file, boolean ordered, String recognizeType, String outputFormat, Object... propSpec) {
+        this(executor, file, ordered, executor.getMaximumPoolSize(), recognizeType, outputFormat, propSpec);
+    }
+
+    /**
+     * Creates a publisher of the pages of the given document.
+     * @param maxPagesInFlight max number of pages being recognized or waiting to be emitted.
+     */
+    public OcrPagePublisher(OcrExecutorService executor, File file, boolean ordered, int maxPagesInFlight, String recognizeType, String outputFormat, Object... propSpec) {
+        if(Ocr.OUTPUT_FORMAT_PDF.equals(outputFormat) || Ocr.OUTPUT_FORMAT_RTF.equals(outputFormat)) {
+            throw new IllegalArgumentException("Per-page results are only available in text or xml format.");
+        }
+        if(maxPagesInFlight < 1) {
+            throw new IllegalArgumentException("Invalid max pages in flight: " + maxPagesInFlight);
+        }
+        this.executor = executor;
+        this.file = file;
+        this.ordered = ordered;
+        this.maxPagesInFlight = maxPagesInFlight;
+        this.recognizeType = recognizeType;
+        this.outputFormat = outputFormat;
+        this.propSpec = propSpec;
+    }
+
+    /**
+     * Sets the executor on which results of pages are delivered to the subscriber once an engine completes them, so
+     * that a slow subscriber never holds an engine; by default a shared pool of daemon threads. Signals are never
+     * delivered concurrently. Must be called before {@linkplain #subscribe(OcrFlow.Subscriber)}.
+     * @return this publisher
+     */
+    public OcrPagePublisher setSignalExecutor(Executor signalExecutor) {
+        this.signalExecutor = signalExecutor;
+        return this;
+    }
+
+    Executor getSignalExecutor() {
+        Executor executor = signalExecutor;
+        if(executor != null) {
+            return executor;
+        }
+        if(defaultSignalExecutor == null) {
+            synchronized (OcrPagePublisher.class) {
+                if(defaultSignalExecutor == null) {
+                    defaultSignalExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("ocr-page-publisher", true));
+                }
+            }
+        }
+        return defaultSignalExecutor;
+    }
+
+    /** Only one subscriber is supported; further subscribers receive an error. */
+    @Override
+    public void subscribe(OcrFlow.Subscriber<? super PageResult> subscriber) {
+        if(subscriber == null) {
+            throw new NullPointerException();
+        }
+        if(!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new OcrFlow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("This publisher supports a single subscriber only."));
+            return;
+        }
+        PageSubscription subscription = new PageSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /** Recognizes pages on demand and emits their results; all signals are sent from within drain(), one thread at a time. */
+    class PageSubscription implements OcrFlow.Subscription {
+        final OcrFlow.Subscriber<? super PageResult> subscriber;
+
+        final AtomicLong demand = new AtomicLong();
+        final AtomicInteger wip = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        volatile boolean cancelled;
+
+        /** Completed pages by page index; used in ordered mode. */
+        final Map<Integer, PageResult> completedByPage = new ConcurrentHashMap<Integer, PageResult>();
+        /** Completed pages in completion order; used in unordered mode. */
+        final Queue<PageResult> completedQueue = new ConcurrentLinkedQueue<PageResult>();
+        final Map<Integer, Future<String>> pending = new ConcurrentHashMap<Integer, Future<String>>();
+
+        // only accessed within drain()
+        int pageCount = -1;
+        int nextPageToSubmit = 1;
+        int nextPageToEmit = 1;
+        int emitted;
+        boolean terminated;
+
+        PageSubscription(OcrFlow.Subscriber<? super PageResult> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0) {
+                error.compareAndSet(null, new IllegalArgumentException("Demand must be positive: " + n));
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while(!demand.compareAndSet(current, next));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        void drain() {
+            if(wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while(true) {
+                drainOnce();
+                missed = wip.addAndGet(-missed);
+                if(missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        void drainOnce() {
+            if(terminated) {
+                return;
+            }
+            if(cancelled) {
+                terminated = true;
+                cancelPending();
+                return;
+            }
+
+            if(pageCount < 0) {
+                try {
+                    pageCount = DocumentPages.countPages(file);
+                } catch (Throwable t) {
+                    error.compareAndSet(null, new OcrException("Failed to count pages of " + file + ": " + t.getMessage(), t));
+                }
+            }
+
+            Throwable t = error.get();
+            if(t != null) {
+                terminated = true;
+                cancelPending();
+                subscriber.onError(t);
+                return;
+            }
+
+            long requested = demand.get();
+            long sent = 0;
+            while(sent < requested) {
+                PageResult page = ordered ? completedByPage.remove(nextPageToEmit) : completedQueue.poll();
+                if(page == null) {
+                    break;
+                }
+                subscriber.onNext(page);
+                sent++;
+                emitted++;
+                if(ordered) {
+                    nextPageToEmit++;
+                }
+                if(cancelled) {
+                    terminated = true;
+                    cancelPending();
+                    return;
+                }
+            }
+            if(sent > 0 && requested != Long.MAX_VALUE) {
+                demand.addAndGet(-sent);
+            }
+
+            if(emitted == pageCount) {
+                terminated = true;
+                subscriber.onComplete();
+                return;
+            }
+
+            long window = Math.min(maxPagesInFlight, demand.get());
+            while(nextPageToSubmit <= pageCount && (nextPageToSubmit - 1 - emitted) < window) {
+                if(!submitPage(nextPageToSubmit++)) {
+                    wip.incrementAndGet(); // one more pass to deliver the error even if no page is in flight
+                    return;
+                }
+            }
+        }
+
+        /** Returns false if the page could not be submitted; the error is recorded. */
+        boolean submitPage(final int pageIndex) {
+            OcrExecutorService.OcrCallable task = new OcrExecutorService.OcrCallable(file.getAbsolutePath(), pageIndex, -1, -1, -1, -1,
+                recognizeType, outputFormat, propSpec);
+            OcrFuture<String> future;
+            try {
+                future = executor.submit(task);
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+                return false;
+            }
+            pending.put(pageIndex, future);
+            future.addCallback(new OcrFuture.Callback<String>() {
+                @Override
+                public void onSuccess(String result) {
+                    pending.remove(pageIndex);
+                    PageResult page = new PageResult(pageIndex, pageCount, result);
+                    if(ordered) {
+                        completedByPage.put(pageIndex, page);
+                    } else {
+                        completedQueue.offer(page);
+                    }
+                    drain();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    pending.remove(pageIndex);
+                    if(!cancelled) {
+                        error.compareAndSet(null, t);
+                    }
+                    drain();
+                }
+            }, getSignalExecutor());
+            return true;
+        }
+
+        void cancelPending() {
+            for(Future<String> future : pending.values()) {
+                future.cancel(false);
+            }
+            pending.clear();
+            completedByPage.clear();
+            completedQueue.clear();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import com.asprise.ocr.util.ImageNormalizer;
+import com.asprise.ocr.util.ImageQualityEstimator;
+import com.asprise.ocr.util.NamedThreadFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the quality of inputs before they are queued for an engine and rejects or reroutes those unlikely to be
+ * read well, so that hopeless inputs never take an engine slot.
+ * <p>Quality is estimated by {@linkplain ImageQualityEstimator} on a pool of daemon threads of the gate. An input
+ * failing a threshold is handled by the action configured for that threshold; if it fails several, the most severe
+ * action applies (in the order of {@linkplain Action}):</p>
+ * <ul>
+ *     <li>{@linkplain Action#PREPROCESS}: the image is cleaned up by the preprocessor (grayscale and Sauvola
+ *     binarization by default) and then recognized - default for low contrast;</li>
+ *     <li>{@linkplain Action#SLOW_ENGINE}: recognized by the executor of {@linkplain Ocr#SPEED_SLOW} engines set by
+ *     {@linkplain #setSlowExecutor(OcrExecutorService)} - default for blur;</li>
+ *     <li>{@linkplain Action#REJECT}: fails with {@linkplain OcrQualityRejectedException} - default for low DPI
+ *     read from the image metadata.</li>
+ * </ul>
+ * <p>Without resolution metadata, the DPI is merely estimated from the image width (see
+ * {@linkplain ImageQualityEstimator#setAssumedPageWidthInches(double)}), which is far too low for narrow inputs such
+ * as receipts or cropped fields; such inputs are therefore never rejected for their DPI and are accepted by
+ * default, see {@linkplain #setEstimatedDpiPolicy(Action)}.</p>
+ * <p>Inputs ImageIO can not read, e.g., PDF, are passed through.</p>
+ * <pre>OcrQualityGate gate = new OcrQualityGate(executor);
+ * gate.setSlowExecutor(new OcrExecutorService("eng", Ocr.SPEED_SLOW, 1));
+ * String text = gate.recognizeAsync(file, Ocr.RECOGNIZE_TYPE_TEXT, Ocr.OUTPUT_FORMAT_PLAINTEXT).get();</pre>
+ */
+public class OcrQualityGate {
+
+    /** What to do with an input; in increasing order of severity. */
+    public static enum Action {
+        ACCEPT, PREPROCESS, SLOW_ENGINE, REJECT
+    }
+
+    public static final double DEFAULT_MIN_SHARPNESS = 200;
+    public static final int DEFAULT_MIN_CONTRAST = 40;
+    public static final int DEFAULT_MIN_DPI = 100;
+
+    final OcrExecutorService executor;
+    volatile OcrExecutorService slowExecutor;
+    volatile ImageNormalizer preprocessor = new ImageNormalizer(1, ImageNormalizer.DEFAULT_DPI,
+        new ImageNormalizer.Grayscale(), new ImageNormalizer.SauvolaBinarize());
+    final ImageQualityEstimator estimator = new ImageQualityEstimator();
+    final ThreadPoolExecutor pool;
+
+    volatile double minSharpness = DEFAULT_MIN_SHARPNESS;
+    volatile int minContrast = DEFAULT_MIN_CONTRAST;
+    volatile int minDpi = DEFAULT_MIN_DPI;
+    volatile Action onBlur = Action.SLOW_ENGINE;
+    volatile Action onLowContrast = Action.PREPROCESS;
+    volatile Action onLowDpi = Action.REJECT;
+    volatile Action onLowEstimatedDpi = Action.ACCEPT;
+
+    final AtomicLong[] actionCounts = new AtomicLong[Action.values().length];
+
+    /** A gate in front of the given executor checking as many inputs concurrently as half of the CPU cores. */
+    public OcrQualityGate(OcrExecutorService executor) {
+        this(executor, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * @param executor executor recognizing accepted inputs
+     * @param threads max number of inputs checked concurrently; when all are busy, the submitting thread checks the input
+     */
+    public OcrQualityGate(OcrExecutorService executor, int threads) {
+        if(executor == null || threads < 1) {
+            throw new IllegalArgumentException("Invalid executor or threads: " + threads);
+        }
+        this.executor = executor;
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(2 * threads),
+            new NamedThreadFactory("ocr-quality-gate", true), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+        for(int i = 0; i < actionCounts.length; i++) {
+            actionCounts[i] = new AtomicLong();
+        }
+    }
+
+    /** Returns the action for an input of the given quality. */
+    public Action decide(ImageQualityEstimator.Quality quality) {
+        Action action = Action.ACCEPT;
+        if(quality.getEffectiveDpi() < minDpi) {
+            action = max(action, quality.isDpiFromMetadata() ? onLowDpi : onLowEstimatedDpi);
+        }
+        if(quality.getContrast() < minContrast) {
+            action = max(action, onLowContrast);
+        }
+        if(quality.getSharpness() < minSharpness) {
+            action = max(action, onBlur);
+        }
+        return action;
+    }
+
+    static Action max(Action a, Action b) {
+        return a.ordinal() >= b.ordinal() ? a : b;
+    }
+
+    /**
+     * Checks the quality of the given image file and recognizes it according to the resulting action.
+     * See {@linkplain Ocr#recognize(File[], String, String, Object...)}.
+     * @return future of the recognition output; fails with {@linkplain OcrQualityRejectedException} if rejected.
+     */
+    public OcrFuture<String> recognizeAsync(final File file, final String recognizeType, final String outputFormat, final Object... propSpec) {
+        return gate(new Check() {
+            @Override
+            public OcrFuture<String> run() throws Exception {
+                ImageQualityEstimator.Quality quality = estimator.estimate(file, -1);
+                if(quality == null) {
+                    return executor.recognizeAsync(new File[] {file}, recognizeType, outputFormat, propSpec);
+                }
+                Action action = decide(quality);
+                actionCounts[action.ordinal()].incrementAndGet();
+                switch (action) {
+                    case REJECT:
+                        throw new OcrQualityRejectedException("Rejected " + file + " of low quality: " + quality, quality);
+                    case PREPROCESS:
+                        BufferedImage img = ImageIO.read(file);
+                        int dpi = quality.isDpiFromMetadata() ? quality.getEffectiveDpi() : 0;
+                        return executor.recognizeAsync(preprocessor.normalize(img, dpi, false), dpi, recognizeType, outputFormat, propSpec);
+                    case SLOW_ENGINE:
+                        return getSlowOrDefaultExecutor().recognizeAsync(new File[] {file}, recognizeType, outputFormat, propSpec);
+                    default:
+                        return executor.recognizeAsync(new File[] {file}, recognizeType, outputFormat, propSpec);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks the quality of the given image and recognizes it according to the resulting action.
+     * See {@linkplain Ocr#recognize(RenderedImage, String, String, Object...)}.
+     * @param dpi resolution of the image or 0 if unknown
+     * @return future of the recognition output; fails with {@linkplain OcrQualityRejectedException} if rejected.
+     */
+    public OcrFuture<String> recognizeAsync(final RenderedImage img, final int dpi, final String recognizeType, final String outputFormat, final Object... propSpec) {
+        return gate(new Check() {
+            @Override
+            public OcrFuture<String> run() throws Exception {
+                ImageQualityEstimator.Quality quality = estimator.estimate(img, dpi);
+                Action action = decide(quality);
+                actionCounts[action.ordinal()].incrementAndGet();
+                switch (action) {
+                    case REJECT:
+                        throw new OcrQualityRejectedException("Rejected image of low quality: " + quality, quality);
+                    case PREPROCESS:
+                        return executor.recognizeAsync(preprocessor.normalize(img, dpi, false), dpi, recognizeType, outputFormat, propSpec);
+                    case SLOW_ENGINE:
+                        return getSlowOrDefaultExecutor().recognizeAsync(img, dpi, recognizeType, outputFormat, propSpec);
+                    default:
+                        return executor.recognizeAsync(img, dpi, recognizeType, outputFormat, propSpec);
+                }
+            }
+        });
+    }
+
+    interface Check {
+        /** Checks the input and returns the future of its recognition. */
+        OcrFuture<String> run() throws Exception;
+    }
+
+    /** Runs the check on the pool of the gate; the returned future completes with the recognition it submits. */
+    OcrFuture<String> gate(final Check check) {
+        final OcrFuture<String> result = new OcrFuture<String>();
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(result.isDone()) { // cancelled meanwhile
+                        return;
+                    }
+                    try {
+                        final OcrFuture<String> recognition = check.run();
+                        recognition.addCallback(new OcrFuture.Callback<String>() {
+                            @Override
+                            public void onSuccess(String s) {
+                                result.complete(s);
+                            }
+
+                            @Override
+                            public void onFailure(Throwable t) {
+                                result.fail(t);
+                            }
+                        });
+                        result.addListener(new Runnable() {
+                            @Override
+                            public void run() {
+                                if(result.isCancelled()) {
+                                    recognition.cancel(false);
+                                }
+                            }
+                        }, null);
+                    } catch (Throwable t) {
+                        result.fail(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) { // gate shut down
+            result.fail(e);
+        }
+        return result;
+    }
+
+    OcrExecutorService getSlowOrDefaultExecutor() {
+        OcrExecutorService slow = slowExecutor;
+        return slow != null ? slow : executor;
+    }
+
+    /** Sets the executor, typically of {@linkplain Ocr#SPEED_SLOW} engines, for {@linkplain Action#SLOW_ENGINE}; the default executor is used if null. */
+    public void setSlowExecutor(OcrExecutorService slowExecutor) {
+        this.slowExecutor = slowExecutor;
+    }
+
+    public OcrExecutorService getSlowExecutor() {
+        return slowExecutor;
+    }
+
+    /** Sets the normalization applied for {@linkplain Action#PREPROCESS}. */
+    public void setPreprocessor(ImageNormalizer preprocessor) {
+        if(preprocessor == null) {
+            throw new IllegalArgumentException("preprocessor can not be null");
+        }
+        this.preprocessor = preprocessor;
+    }
+
+    public ImageNormalizer getPreprocessor() {
+        return preprocessor;
+    }
+
+    public ImageQualityEstimator getEstimator() {
+        return estimator;
+    }
+
+    /**
+     * Sets the min sharpness (variance of the Laplacian) and the action for blurred inputs below it.
+     */
+    public void setBlurPolicy(double minSharpness, Action action) {
+        this.minSharpness = minSharpness;
+        this.onBlur = checkAction(action);
+    }
+
+    /** Sets the min contrast (0 to 255) and the action for inputs below it. */
+    public void setContrastPolicy(int minContrast, Action action) {
+        this.minContrast = minContrast;
+        this.onLowContrast = checkAction(action);
+    }
+
+    /**
+     * Sets the min effective DPI and the action for inputs whose DPI read from the metadata is below it.
+     * See {@linkplain #setEstimatedDpiPolicy(Action)} for inputs without resolution metadata.
+     */
+    public void setDpiPolicy(int minDpi, Action action) {
+        this.minDpi = minDpi;
+        this.onLowDpi = checkAction(action);
+    }
+
+    /**
+     * Sets the action for inputs without resolution metadata whose estimated DPI is below the min DPI.
+     * @param action {@linkplain Action#ACCEPT} (default) or {@linkplain Action#PREPROCESS}
+     */
+    public void setEstimatedDpiPolicy(Action action) {
+        if(action != Action.ACCEPT && action != Action.PREPROCESS) {
+            throw new IllegalArgumentException("An estimated DPI can only be accepted or preprocessed: " + action);
+        }
+        this.onLowEstimatedDpi = action;
+    }
+
+    static Action checkAction(Action action) {
+        if(action == null) {
+            throw new IllegalArgumentException("action can not be null");
+        }
+        return action;
+    }
+
+    /** Number of inputs checked that got the given action. */
+    public long getCount(Action action) {
+        return actionCounts[action.ordinal()].get();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
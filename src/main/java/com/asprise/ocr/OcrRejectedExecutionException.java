@@ -0,0 +1,38 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when an OCR task can not be accepted by {@linkplain OcrExecutorService}.
+ */
+public class OcrRejectedExecutionException extends RejectedExecutionException {
+
+    final int queueDepth;
+
+    public OcrRejectedExecutionException(String message, int queueDepth) {
+        super(message);
+        this.queueDepth = queueDepth;
+    }
+
+    /** Number of tasks waiting in the queue when the task was rejected. */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+}
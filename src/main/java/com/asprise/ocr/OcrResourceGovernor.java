@@ -0,0 +1,119 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import com.asprise.ocr.util.ContainerResources;
+import com.asprise.ocr.util.Utils;
+
+/**
+ * Sizes OCR engines to the CPU and memory limits of the container the JVM runs in.
+ * <p>The engine count is the number of CPUs allowed by the CPU quota and cpuset, further limited so that every engine
+ * gets its memory budget out of the memory limit after the JVM heap is set aside. Once running, new tasks are only
+ * admitted while the process has enough memory headroom left below the limit for one more recognition, so a burst of
+ * large images is rejected instead of getting the whole pod OOM-killed.</p>
+ * <pre>OcrExecutorService service = new OcrExecutorService("eng", Ocr.SPEED_FASTEST, OcrResourceGovernor.detect(),
+ *     1000, OcrExecutorService.RejectionPolicy.FAIL_FAST);</pre>
+ */
+public class OcrResourceGovernor {
+
+    /** Default memory an engine is expected to need, including the images it works on. */
+    public static final long DEFAULT_MEMORY_PER_ENGINE = 256L * 1024 * 1024;
+
+    /** Native memory of the JVM besides the heap: metaspace, thread stacks, code cache, etc. */
+    static final long JVM_OVERHEAD = 64L * 1024 * 1024;
+
+    final ContainerResources resources;
+    final long memoryPerEngine;
+    final long reservedMemory;
+    volatile long admissionHeadroom;
+
+    /** Detects the limits of the current container, assuming {@linkplain #DEFAULT_MEMORY_PER_ENGINE} per engine. */
+    public static OcrResourceGovernor detect() {
+        return new OcrResourceGovernor(ContainerResources.detect(), DEFAULT_MEMORY_PER_ENGINE);
+    }
+
+    /**
+     * @param resources limits of the container
+     * @param memoryPerEngine memory an engine is expected to need.
+     */
+    public OcrResourceGovernor(ContainerResources resources, long memoryPerEngine) {
+        if(memoryPerEngine <= 0) {
+            throw new IllegalArgumentException("Invalid memory per engine: " + memoryPerEngine);
+        }
+        this.resources = resources;
+        this.memoryPerEngine = memoryPerEngine;
+        long heap = Runtime.getRuntime().maxMemory();
+        this.reservedMemory = (heap == Long.MAX_VALUE ? Runtime.getRuntime().totalMemory() : heap) + JVM_OVERHEAD;
+        this.admissionHeadroom = memoryPerEngine / 2;
+    }
+
+    /** Number of engines that fit in the CPU and memory limits; at least 1. */
+    public int getEngineCount() {
+        int engines = resources.getEffectiveCpus();
+        long limit = resources.getMemoryLimit();
+        if(limit > 0) {
+            engines = (int) Math.min(engines, (limit - reservedMemory) / memoryPerEngine);
+        }
+        return Math.max(1, engines);
+    }
+
+    /** Memory each engine may use when {@linkplain #getEngineCount()} engines run; the configured estimate if memory is not limited. */
+    public long getMemoryBudgetPerEngine() {
+        long limit = resources.getMemoryLimit();
+        if(limit <= 0) {
+            return memoryPerEngine;
+        }
+        return Math.max(0, (limit - reservedMemory) / getEngineCount());
+    }
+
+    /**
+     * Sets how much memory must be left below the limit for a new task to be admitted; default is half the memory per engine.
+     */
+    public void setAdmissionHeadroom(long bytes) {
+        if(bytes < 0) {
+            throw new IllegalArgumentException("Invalid admission headroom: " + bytes);
+        }
+        this.admissionHeadroom = bytes;
+    }
+
+    public long getAdmissionHeadroom() {
+        return admissionHeadroom;
+    }
+
+    /**
+     * Returns true if the resident memory of the process is far enough below the memory limit to admit another task.
+     * Always true when there is no limit or the resident memory can not be read.
+     */
+    public boolean hasMemoryHeadroom() {
+        long limit = resources.getMemoryLimit();
+        if(limit <= 0) {
+            return true;
+        }
+        long rss = Utils.getResidentSetSize();
+        return rss < 0 || rss + admissionHeadroom <= limit;
+    }
+
+    public ContainerResources getResources() {
+        return resources;
+    }
+
+    @Override
+    public String toString() {
+        return resources + "; engines: " + getEngineCount() + ", memory budget per engine: " + getMemoryBudgetPerEngine();
+    }
+}
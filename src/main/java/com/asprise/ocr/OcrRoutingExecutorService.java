@@ -0,0 +1,316 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import com.asprise.ocr.util.NamedThreadFactory;
+import com.asprise.ocr.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches OCR tasks to per-language sub-pools that share a fixed engine budget.
+ * <p>The language of a task is set with {@linkplain OcrExecutorService.OcrCallable#setLanguage(String)}. Sub-pool sizes
+ * follow the observed traffic mix: every rebalance interval the engine budget is redistributed proportionally to the
+ * smoothed share of tasks each language received, with at least one engine per language. A language not given at
+ * construction gets a sub-pool of its own on first use as long as the budget leaves an engine for it, i.e., there are
+ * never more languages than engines.</p>
+ * <pre>OcrRoutingExecutorService service = new OcrRoutingExecutorService(Ocr.SPEED_FASTEST, 8, "eng", "fra", "deu");
+ * OcrFuture&lt;String&gt; future = service.submit(new OcrExecutorService.OcrCallable(files, Ocr.RECOGNIZE_TYPE_ALL, Ocr.OUTPUT_FORMAT_PLAINTEXT).setLanguage("fra"));</pre>
+ */
+public class OcrRoutingExecutorService {
+
+    /** Weight of the latest window when smoothing the traffic share of each language. */
+    static final double SMOOTHING_FACTOR = 0.3;
+
+    final String speed;
+    final String defaultLang;
+    volatile int totalEngines;
+
+    final Map<String, SubPool> subPools = new ConcurrentHashMap<String, SubPool>();
+    final ScheduledExecutorService rebalanceExecutor;
+
+    volatile boolean shutdown;
+
+    /**
+     * Creates a routing executor with the engine budget split evenly among the given languages; sizes are rebalanced every 30 seconds.
+     * @param speed speed settings, e.g., {@linkplain Ocr#SPEED_FASTEST}.
+     * @param totalEngines total number of engines shared by all languages; at least one per language.
+     * @param langs languages expected; the first one is used for tasks without a language.
+     */
+    public OcrRoutingExecutorService(String speed, int totalEngines, String... langs) {
+        this(speed, totalEngines, 30 * 1000L, langs);
+    }
+
+    /**
+     * Creates a routing executor with the engine budget split evenly among the given languages.
+     * @param speed speed settings, e.g., {@linkplain Ocr#SPEED_FASTEST}.
+     * @param totalEngines total number of engines shared by all languages; at least one per language.
+     * @param rebalanceIntervalMillis how often sub-pool sizes are adjusted to the traffic mix; 0 to rebalance only through {@linkplain #rebalance()}.
+     * @param langs languages expected; the first one is used for tasks without a language.
+     */
+    public OcrRoutingExecutorService(String speed, int totalEngines, long rebalanceIntervalMillis, String... langs) {
+        if(langs == null || langs.length == 0) {
+            throw new IllegalArgumentException("At least one language is required.");
+        }
+        if(totalEngines < langs.length) {
+            throw new IllegalArgumentException("Invalid total engines: " + totalEngines + "; at least one per language is required for " + langs.length + " languages.");
+        }
+        this.speed = speed;
+        this.defaultLang = langs[0];
+        this.totalEngines = totalEngines;
+
+        int[] sizes = allocate(totalEngines, evenWeights(langs.length));
+        for(int i = 0; i < langs.length; i++) {
+            if(StringUtils.isEmpty(langs[i])) {
+                throw new IllegalArgumentException("Language can not be empty.");
+            }
+            subPools.put(langs[i], new SubPool(langs[i], sizes[i], 1.0 / langs.length));
+        }
+
+        rebalanceExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ocr-routing-rebalance", true));
+        if(rebalanceIntervalMillis > 0) {
+            rebalanceExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rebalance();
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                }
+            }, rebalanceIntervalMillis, rebalanceIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Submits the task to the sub-pool of its language; a sub-pool is created on demand for a language not seen before,
+     * taking its engine from the other languages.
+     * @param task the OCR task; tasks without a language go to the first language given at construction.
+     * @return future of the recognition result.
+     * @throws OcrRejectedExecutionException if the language is new and every engine of the budget already serves another language.
+     */
+    public OcrFuture<String> submit(OcrExecutorService.OcrCallable task) {
+        if(shutdown) {
+            throw new OcrRejectedExecutionException("OCR routing executor has been shut down.", 0);
+        }
+        String lang = StringUtils.isEmpty(task.getLanguage()) ? defaultLang : task.getLanguage();
+        SubPool subPool = getSubPool(lang);
+        subPool.submitted.incrementAndGet();
+        return subPool.executor.submit(task);
+    }
+
+    /** Redistributes the engine budget among languages according to the traffic observed since the last rebalance. */
+    public synchronized void rebalance() {
+        if(shutdown) {
+            return;
+        }
+        List<SubPool> pools = new ArrayList<SubPool>(subPools.values());
+
+        long windowTotal = 0;
+        long[] windowCounts = new long[pools.size()];
+        for(int i = 0; i < pools.size(); i++) {
+            SubPool pool = pools.get(i);
+            long submitted = pool.submitted.get();
+            windowCounts[i] = submitted - pool.submittedAtLastRebalance;
+            pool.submittedAtLastRebalance = submitted;
+            windowTotal += windowCounts[i];
+        }
+
+        double[] weights = new double[pools.size()];
+        for(int i = 0; i < pools.size(); i++) {
+            SubPool pool = pools.get(i);
+            if(windowTotal > 0) {
+                pool.weight = (1 - SMOOTHING_FACTOR) * pool.weight + SMOOTHING_FACTOR * windowCounts[i] / windowTotal;
+            }
+            weights[i] = pool.weight;
+        }
+
+        int[] sizes = allocate(totalEngines, weights);
+        for(int i = 0; i < pools.size(); i++) {
+            pools.get(i).resize(sizes[i]);
+        }
+    }
+
+    /**
+     * Changes the total number of engines shared by all languages; takes effect immediately.
+     * @param totalEngines at least one per language in use.
+     */
+    public synchronized void setTotalEngines(int totalEngines) {
+        if(totalEngines < subPools.size()) {
+            throw new IllegalArgumentException("Invalid total engines: " + totalEngines + "; at least one per language is required for " + subPools.size() + " languages.");
+        }
+        this.totalEngines = totalEngines;
+        rebalance();
+    }
+
+    public int getTotalEngines() {
+        return totalEngines;
+    }
+
+    /** Current number of engines of each language. */
+    public Map<String, Integer> getPoolSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+        for(SubPool pool : subPools.values()) {
+            sizes.put(pool.lang, pool.executor.getEngineCount());
+        }
+        return sizes;
+    }
+
+    /** Smoothed share of the traffic of each language. */
+    public Map<String, Double> getTrafficWeights() {
+        Map<String, Double> weights = new LinkedHashMap<String, Double>();
+        for(SubPool pool : subPools.values()) {
+            weights.put(pool.lang, pool.weight);
+        }
+        return weights;
+    }
+
+    /** The executor serving the given language or <pre>null</pre> if the language has not been used. */
+    public OcrExecutorService getExecutor(String lang) {
+        SubPool pool = subPools.get(lang);
+        return pool == null ? null : pool.executor;
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        rebalanceExecutor.shutdownNow();
+        for(SubPool pool : subPools.values()) {
+            pool.executor.shutdown();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for(SubPool pool : subPools.values()) {
+            if(!pool.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sub-pool of the language, creating it with an engine taken from the other languages if needed. Only
+     * the creation takes the lock, which {@linkplain #rebalance()} holds while resizing.
+     */
+    SubPool getSubPool(String lang) {
+        SubPool pool = subPools.get(lang);
+        return pool != null ? pool : createSubPool(lang);
+    }
+
+    synchronized SubPool createSubPool(String lang) {
+        SubPool pool = subPools.get(lang); // created meanwhile?
+        if(pool == null) {
+            if(subPools.size() >= totalEngines) {
+                throw new OcrRejectedExecutionException("No engine left for language " + lang + ": all " + totalEngines
+                    + " engines serve other languages.", 0);
+            }
+            List<SubPool> pools = new ArrayList<SubPool>(subPools.values());
+            double[] weights = new double[pools.size()];
+            for(int i = 0; i < pools.size(); i++) {
+                weights[i] = pools.get(i).weight;
+            }
+            int[] sizes = allocate(totalEngines - 1, weights);
+            for(int i = 0; i < pools.size(); i++) {
+                pools.get(i).resize(sizes[i]); // makes room before the new engine is added
+            }
+            pool = new SubPool(lang, 1, 0);
+            subPools.put(lang, pool);
+        }
+        return pool;
+    }
+
+    static double[] evenWeights(int count) {
+        double[] weights = new double[count];
+        for(int i = 0; i < count; i++) {
+            weights[i] = 1.0 / count;
+        }
+        return weights;
+    }
+
+    /** Splits total, which is at least the number of weights, proportionally to weights with the largest remainder method, giving each at least one. */
+    static int[] allocate(int total, double[] weights) {
+        int count = weights.length;
+        if(total < count) {
+            throw new IllegalArgumentException("Can not allocate " + total + " engines to " + count + " languages.");
+        }
+        int[] sizes = new int[count];
+        int remaining = total - count;
+        if(remaining == 0) {
+            for(int i = 0; i < count; i++) {
+                sizes[i] = 1;
+            }
+            return sizes;
+        }
+
+        double weightSum = 0;
+        for(double weight : weights) {
+            weightSum += weight;
+        }
+
+        double[] remainders = new double[count];
+        int allocated = 0;
+        for(int i = 0; i < count; i++) {
+            double share = weightSum > 0 ? remaining * weights[i] / weightSum : (double) remaining / count;
+            sizes[i] = 1 + (int) Math.floor(share);
+            remainders[i] = share - Math.floor(share);
+            allocated += sizes[i] - 1;
+        }
+
+        for(; allocated < remaining; allocated++) {
+            int largest = 0;
+            for(int i = 1; i < count; i++) {
+                if(remainders[i] > remainders[largest]) {
+                    largest = i;
+                }
+            }
+            sizes[largest]++;
+            remainders[largest] = -1;
+        }
+        return sizes;
+    }
+
+    /** Engines of a single language. */
+    class SubPool {
+        final String lang;
+        final OcrExecutorService executor;
+        final AtomicLong submitted = new AtomicLong();
+        long submittedAtLastRebalance;
+        volatile double weight;
+
+        SubPool(String lang, int size, double weight) {
+            this.lang = lang;
+            this.executor = new OcrExecutorService(lang, speed, size);
+            this.weight = weight;
+        }
+
+        void resize(int size) {
+            if(size != executor.getEngineCount()) {
+                executor.resize(size);
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded work queue of {@linkplain OcrExecutorService} that serves tasks by priority class.
+ * <p>Tasks of the same priority are served in FIFO order. To prevent starvation, a task is promoted by one priority
+ * class for every aging interval it has been waiting; ties go to the task that has been waiting longer.</p>
+ */
+class OcrTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    final int capacity;
+    volatile long agingNanos;
+
+    /** One FIFO lane per priority class, indexed by {@linkplain OcrExecutorService.Priority#ordinal()}. */
+    final List<LinkedList<Entry>> lanes;
+    int count;
+
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition notEmpty = lock.newCondition();
+    final Condition notFull = lock.newCondition();
+
+    OcrTaskQueue(int capacity, long agingMillis) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        setAgingMillis(agingMillis);
+        int laneCount = OcrExecutorService.Priority.values().length;
+        lanes = new ArrayList<LinkedList<Entry>>(laneCount);
+        for(int i = 0; i < laneCount; i++) {
+            lanes.add(new LinkedList<Entry>());
+        }
+    }
+
+    /** Sets how long a task waits before being promoted by one priority class; 0 to disable aging. */
+    void setAgingMillis(long agingMillis) {
+        if(agingMillis < 0) {
+            throw new IllegalArgumentException("Invalid aging interval: " + agingMillis);
+        }
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+    }
+
+    long getAgingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(agingNanos);
+    }
+
+    static OcrExecutorService.Priority priorityOf(Runnable r) {
+        if(r instanceof OcrFutureTask) {
+            return ((OcrFutureTask<?>) r).priority;
+        }
+        return OcrExecutorService.Priority.STANDARD;
+    }
+
+    /** Number of tasks waiting in each priority class. */
+    int[] getCountsByPriority() {
+        lock.lock();
+        try {
+            int[] counts = new int[lanes.size()];
+            for(int i = 0; i < lanes.size(); i++) {
+                counts[i] = lanes.get(i).size();
+            }
+            return counts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Runnable r) {
+        lanes.get(priorityOf(r).ordinal()).addLast(new Entry(r, System.nanoTime()));
+        count++;
+        notEmpty.signal();
+    }
+
+    /** Takes the head of the lane with the best aged priority; caller must hold the lock and ensure count > 0. */
+    private Runnable dequeue() {
+        long now = System.nanoTime();
+        long aging = agingNanos;
+        int best = -1;
+        long bestRank = 0;
+        for(int i = 0; i < lanes.size(); i++) {
+            Entry head = lanes.get(i).peekFirst();
+            if(head == null) {
+                continue;
+            }
+            long rank = aging > 0 ? i - (now - head.enqueuedNanos) / aging : i;
+            if(best < 0 || rank < bestRank || (rank == bestRank && head.enqueuedNanos < lanes.get(best).peekFirst().enqueuedNanos)) {
+                best = i;
+                bestRank = rank;
+            }
+        }
+        Entry entry = lanes.get(best).pollFirst();
+        count--;
+        notFull.signal();
+        return entry.runnable;
+    }
+
+    /** Removes the task that has waited longest in the lowest non-empty priority class. */
+    Runnable pollLeastUrgent() {
+        lock.lock();
+        try {
+            for(int i = lanes.size() - 1; i >= 0; i--) {
+                Entry entry = lanes.get(i).pollFirst();
+                if(entry != null) {
+                    count--;
+                    notFull.signal();
+                    return entry.runnable;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable r) {
+        if(r == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            if(count >= capacity) {
+                return false;
+            }
+            enqueue(r);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) throws InterruptedException {
+        if(r == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(count >= capacity) {
+                if(nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(r);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable r) throws InterruptedException {
+        if(r == null) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while(count >= capacity) {
+                notFull.await();
+            }
+            enqueue(r);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(count == 0) {
+                if(nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while(count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            for(LinkedList<Entry> lane : lanes) {
+                if(!lane.isEmpty()) {
+                    return lane.peekFirst().runnable;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if(o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for(LinkedList<Entry> lane : lanes) {
+                for(Iterator<Entry> it = lane.iterator(); it.hasNext(); ) {
+                    if(o.equals(it.next().runnable)) {
+                        it.remove();
+                        count--;
+                        notFull.signal();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if(c == null) {
+            throw new NullPointerException();
+        }
+        if(c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int n = 0;
+            while(n < maxElements && count > 0) {
+                c.add(dequeue());
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns a snapshot iterator in priority order; removal is applied to the queue. */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<Runnable>();
+        lock.lock();
+        try {
+            for(LinkedList<Entry> lane : lanes) {
+                for(Entry entry : lane) {
+                    snapshot.add(entry.runnable);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return new Iterator<Runnable>() {
+            final Iterator<Runnable> it = snapshot.iterator();
+            Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if(last == null) {
+                    throw new IllegalStateException();
+                }
+                OcrTaskQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    static class Entry {
+        final Runnable runnable;
+        final long enqueuedNanos;
+
+        Entry(Runnable runnable, long enqueuedNanos) {
+            this.runnable = runnable;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import com.asprise.ocr.util.OcrTiles;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Recognizes oversized images, e.g., engineering drawings and A0 scans, by splitting them into overlapping tiles that
+ * are recognized in parallel by the engines of an {@linkplain OcrExecutorService}.
+ * <p>The xml results of the tiles are stitched back into page coordinates and text recognized twice in the overlap
+ * bands is kept once; see {@linkplain OcrTiles}. Plain text output is produced from the stitched xml in reading order.
+ * Images no larger than a tile and other output formats are recognized as a whole by a single engine.</p>
+ * <pre>String xml = new OcrTiledRecognizer(executor).recognize(drawing, Ocr.RECOGNIZE_TYPE_TEXT, Ocr.OUTPUT_FORMAT_XML);</pre>
+ */
+public class OcrTiledRecognizer {
+
+    public static final int DEFAULT_TILE_SIZE = 2048;
+    public static final int DEFAULT_OVERLAP = 128;
+
+    final OcrExecutorService executor;
+    final int tileSize;
+    final int overlap;
+
+    public OcrTiledRecognizer(OcrExecutorService executor) {
+        this(executor, DEFAULT_TILE_SIZE, DEFAULT_OVERLAP);
+    }
+
+    /**
+     * @param executor executor whose engines recognize the tiles
+     * @param tileSize max width and height of a tile in pixels
+     * @param overlap width of the band shared by adjacent tiles; should be larger than the tallest line of text
+     */
+    public OcrTiledRecognizer(OcrExecutorService executor, int tileSize, int overlap) {
+        if(executor == null) {
+            throw new IllegalArgumentException("executor can not be null");
+        }
+        if(overlap < 0 || tileSize <= overlap) {
+            throw new IllegalArgumentException("Invalid tile size " + tileSize + " or overlap " + overlap);
+        }
+        this.executor = executor;
+        this.tileSize = tileSize;
+        this.overlap = overlap;
+    }
+
+    /**
+     * Performs text/barcode recognition on the given image file, which is decoded with ImageIO.
+     * See {@linkplain #recognize(BufferedImage, String, String, Object...)}.
+     */
+    public String recognize(File file, String recognizeType, String outputFormat, Object... propSpec) {
+        BufferedImage img;
+        try {
+            img = ImageIO.read(file);
+        } catch (IOException e) {
+            throw new OcrException("Failed to decode " + file, e);
+        }
+        if(img == null) {
+            throw new OcrException("Unsupported input format: " + file);
+        }
+        return recognize(img, recognizeType, outputFormat, propSpec);
+    }
+
+    /**
+     * Performs text/barcode recognition on the given image tile by tile and waits for the result.
+     * @param img input image
+     * @param recognizeType valid values: {@linkplain Ocr#RECOGNIZE_TYPE_TEXT}, {@linkplain Ocr#RECOGNIZE_TYPE_BARCODE} or {@linkplain Ocr#RECOGNIZE_TYPE_ALL}.
+     * @param outputFormat valid values: {@linkplain Ocr#OUTPUT_FORMAT_PLAINTEXT}, {@linkplain Ocr#OUTPUT_FORMAT_XML}, {@linkplain Ocr#OUTPUT_FORMAT_PDF} or {@linkplain Ocr#OUTPUT_FORMAT_RTF}
+     * @param propSpec additional properties, can be a single {@linkplain java.util.Properties} object or inline specification in pairs or a single string. Valid property names are defined in {@linkplain Ocr}, etc.
+     * @return the recognition output in the specified format.
+     */
+    public String recognize(BufferedImage img, String recognizeType, String outputFormat, Object... propSpec) {
+        if(img == null) {
+            throw new IllegalArgumentException("img is null");
+        }
+        boolean tiled = Ocr.OUTPUT_FORMAT_XML.equals(outputFormat) || Ocr.OUTPUT_FORMAT_PLAINTEXT.equals(outputFormat);
+        if(!tiled || (img.getWidth() <= tileSize && img.getHeight() <= tileSize)) {
+            return get(executor.recognizeAsync(img, recognizeType, outputFormat, propSpec));
+        }
+
+        List<OcrTiles.Tile> tiles = OcrTiles.layout(img.getWidth(), img.getHeight(), tileSize, overlap);
+        List<Future<String>> futures = new ArrayList<Future<String>>(tiles.size());
+        try {
+            for(OcrTiles.Tile tile : tiles) {
+                Rectangle r = tile.getRegion();
+                OcrExecutorService.OcrCallable callable = new OcrExecutorService.OcrCallable((RenderedImage) null, recognizeType, Ocr.OUTPUT_FORMAT_XML, propSpec);
+                futures.add(executor.recognizeAsync(img.getSubimage(r.x, r.y, r.width, r.height), callable.setWholePage(false)));
+            }
+            List<String> results = new ArrayList<String>(tiles.size());
+            for(Future<String> future : futures) {
+                results.add(get(future));
+            }
+            String xml = OcrTiles.stitchXml(results, tiles, img.getWidth(), img.getHeight());
+            return Ocr.OUTPUT_FORMAT_XML.equals(outputFormat) || xml == null ? xml : OcrTiles.xmlToText(xml);
+        } finally {
+            for(Future<String> future : futures) {
+                future.cancel(false); // no-op for completed tiles
+            }
+        }
+    }
+
+    static String get(Future<String> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OcrException("Interrupted while waiting for tiles", e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof OcrException) {
+                throw (OcrException) e.getCause();
+            }
+            throw new OcrException("Failed to recognize tile: " + e.getCause(), e.getCause());
+        }
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getOverlap() {
+        return overlap;
+    }
+}
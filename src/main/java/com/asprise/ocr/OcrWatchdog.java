@@ -0,0 +1,122 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr;
+
+import com.asprise.ocr.util.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Finds recognitions of an {@linkplain OcrExecutorService} running longer than a threshold.
+ * <p>A native recognition can not be interrupted, so the worker thread doing it is abandoned instead: its task fails
+ * with {@linkplain OcrRecognitionTimeoutException} and the executor starts a replacement worker with a new engine. The
+ * input is recorded with a fingerprint of its content so that the offending document can be identified.</p>
+ */
+class OcrWatchdog implements Runnable {
+
+    /** Only the beginning of an input file is hashed. */
+    static final int FINGERPRINT_BYTES = 1024 * 1024;
+
+    final OcrExecutorService executor;
+    final long thresholdNanos;
+
+    OcrWatchdog(OcrExecutorService executor, long thresholdMillis) {
+        this.executor = executor;
+        this.thresholdNanos = thresholdMillis * 1000000L;
+    }
+
+    @Override
+    public void run() {
+        try {
+            check();
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    void check() {
+        if(executor.isShutdown()) {
+            return;
+        }
+        for(Map.Entry<Thread, Ocr> entry : executor.threadOcrMap.entrySet()) {
+            Thread thread = entry.getKey();
+            Ocr ocr = entry.getValue();
+            if(ocr.threadDoingOCR != thread) {
+                continue;
+            }
+            long started = ocr.timeStartedOCR;
+            String input = ocr.inputDoingOCR;
+            long elapsed = System.nanoTime() - started;
+            // re-check so that a recognition that just completed followed by a new one is not mistaken for a hung one
+            if(elapsed > thresholdNanos && ocr.threadDoingOCR == thread && ocr.timeStartedOCR == started) {
+                executor.abandonWorker(thread, ocr, fingerprint(input) + ", running for " + (elapsed / 1000000L) + "ms on " + thread.getName());
+            }
+        }
+    }
+
+    /** Describes the input with the size and SHA-1 of (the beginning of) each file. */
+    static String fingerprint(String input) {
+        if(input == null) {
+            return "unknown input";
+        }
+        int hash = input.indexOf('#');
+        String files = hash < 0 ? input : input.substring(0, hash);
+        StringBuilder sb = new StringBuilder(input);
+        for(String path : StringUtils.split(files, ",")) {
+            File file = new File(path.trim());
+            if(file.isFile()) {
+                sb.append(" [").append(file.getName()).append(" size=").append(file.length()).append(" sha1=").append(sha1(file)).append("]");
+            }
+        }
+        return sb.toString();
+    }
+
+    static String sha1(File file) {
+        InputStream in = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[8192];
+            int total = 0;
+            int n;
+            while(total < FINGERPRINT_BYTES && (n = in.read(buffer, 0, Math.min(buffer.length, FINGERPRINT_BYTES - total))) > 0) {
+                digest.update(buffer, 0, n);
+                total += n;
+            }
+            StringBuilder hex = new StringBuilder();
+            for(byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (Throwable t) {
+            return "n/a";
+        } finally {
+            if(in != null) {
+                try {
+                    in.close();
+                } catch (Throwable t) {
+                    //
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import com.asprise.ocr.Ocr;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects blank and near-empty pages, e.g., blank backs of duplex scans, so that they are not recognized.
+ * <p>A page is decoded subsampled to at most {@linkplain #ANALYSIS_SIZE} pixels on its longer side. Pixels clearly
+ * darker than the paper, which is estimated from the brightest pixels, count as ink; a margin along the edges is
+ * ignored as scanners often leave shadows there. A page is blank if both its ink coverage and its number of connected
+ * ink components (specks of a single pixel are ignored) are below the thresholds. Only whole pages are checked: a
+ * region or a tile with little ink, e.g., a sparse form field, still has to be recognized. Blank pages get an empty result:
+ * an empty string for plain text and a page element marked <code>skipped="blank"</code> for xml. Inputs ImageIO can
+ * not read (e.g., PDF) and other output formats are never skipped.</p>
+ */
+public class BlankPageFilter {
+
+    /** Longer side of the subsampled image analyzed. */
+    public static final int ANALYSIS_SIZE = 800;
+    public static final double DEFAULT_MAX_INK_COVERAGE = 0.003;
+    public static final int DEFAULT_MAX_COMPONENTS = 4;
+    static final double MARGIN = 0.04;
+
+    volatile double maxInkCoverage = DEFAULT_MAX_INK_COVERAGE;
+    volatile int maxComponents = DEFAULT_MAX_COMPONENTS;
+
+    final AtomicLong checkedCount = new AtomicLong();
+    final AtomicLong skippedCount = new AtomicLong();
+
+    /**
+     * Returns the result to use instead of recognizing the given page if it is blank.
+     * @param files input file path; more than one comma separated file is never skipped
+     * @param pageIndex the page (first page is 1) or -1 for a single page file
+     * @param wholePage false if a region of the page is to be recognized, which is never skipped
+     * @param outputFormat output format requested
+     * @return the empty result or null to recognize the page.
+     */
+    public String skipIfBlank(String files, int pageIndex, boolean wholePage, String outputFormat) {
+        if(!wholePage || !OcrResultMerger.canMerge(outputFormat) || files == null || files.indexOf(',') >= 0) {
+            return null;
+        }
+        File file = new File(files);
+        BufferedImage img;
+        int[] size = new int[2];
+        try {
+            img = readSubsampled(file, pageIndex, size);
+        } catch (IOException e) {
+            return null; // let the engine report it
+        }
+        if(img == null) {
+            return null;
+        }
+        return isBlankCounted(img) ? emptyResult(file.getAbsolutePath(), size[0], size[1], outputFormat) : null;
+    }
+
+    /**
+     * Returns the result to use instead of recognizing the given image if it is blank.
+     * @param img input image
+     * @param wholePage false if the image is a part of a page, e.g., a region or a tile, which is never skipped
+     * @param outputFormat output format requested
+     * @return the empty result or null to recognize the image.
+     */
+    public String skipIfBlank(RenderedImage img, boolean wholePage, String outputFormat) {
+        if(!wholePage || !OcrResultMerger.canMerge(outputFormat)) {
+            return null;
+        }
+        BufferedImage image = ImageNormalizer.toBufferedImage(img);
+        int step = Math.max(1, (Math.max(image.getWidth(), image.getHeight()) + ANALYSIS_SIZE - 1) / ANALYSIS_SIZE);
+        BufferedImage sample = step == 1 ? image : subsample(image, step);
+        return isBlankCounted(sample) ? emptyResult("image", image.getWidth(), image.getHeight(), outputFormat) : null;
+    }
+
+    boolean isBlankCounted(BufferedImage img) {
+        checkedCount.incrementAndGet();
+        if(isBlank(img)) {
+            skippedCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /** Returns true if the ink coverage and the number of ink components of the image are below the thresholds. */
+    public boolean isBlank(BufferedImage img) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int marginX = (int) (width * MARGIN);
+        int marginY = (int) (height * MARGIN);
+        int w = width - 2 * marginX;
+        int h = height - 2 * marginY;
+        if(w <= 0 || h <= 0) {
+            return true;
+        }
+
+        int[] histogram = new int[256];
+        int[] luminance = new int[w * h];
+        int[] row = new int[w];
+        for(int y = 0; y < h; y++) {
+            img.getRGB(marginX, marginY + y, w, 1, row, 0, w);
+            for(int x = 0; x < w; x++) {
+                int argb = row[x];
+                int alpha = argb >>> 24;
+                int l = (((argb >> 16) & 0xFF) * 299 + ((argb >> 8) & 0xFF) * 587 + (argb & 0xFF) * 114) / 1000;
+                l = (l * alpha + 255 * (255 - alpha)) / 255;
+                luminance[y * w + x] = l;
+                histogram[l]++;
+            }
+        }
+
+        // paper: the level below which 10% of the brightest pixels begin
+        int paper = 255;
+        for(int count = 0; paper > 0 && count + histogram[paper] < w * h / 10; paper--) {
+            count += histogram[paper];
+        }
+        int inkThreshold = paper * 6 / 10;
+
+        boolean[] ink = new boolean[w * h];
+        int inkPixels = 0;
+        for(int i = 0; i < ink.length; i++) {
+            if(luminance[i] < inkThreshold) {
+                ink[i] = true;
+                inkPixels++;
+            }
+        }
+        if((double) inkPixels / ink.length > maxInkCoverage) {
+            return false;
+        }
+        return countComponents(ink, w, h, maxComponents + 1) <= maxComponents;
+    }
+
+    /** Counts 8-connected components of more than one pixel, stopping once the limit is reached. */
+    static int countComponents(boolean[] ink, int w, int h, int limit) {
+        int[] stack = new int[w * h];
+        int components = 0;
+        for(int start = 0; start < ink.length && components < limit; start++) {
+            if(!ink[start]) {
+                continue;
+            }
+            int size = 0;
+            int top = 0;
+            stack[top++] = start;
+            ink[start] = false;
+            while(top > 0) {
+                int p = stack[--top];
+                size++;
+                int px = p % w;
+                int py = p / w;
+                for(int dy = -1; dy <= 1; dy++) {
+                    for(int dx = -1; dx <= 1; dx++) {
+                        int nx = px + dx;
+                        int ny = py + dy;
+                        if(nx >= 0 && ny >= 0 && nx < w && ny < h && ink[ny * w + nx]) {
+                            ink[ny * w + nx] = false;
+                            stack[top++] = ny * w + nx;
+                        }
+                    }
+                }
+            }
+            if(size > 1) {
+                components++;
+            }
+        }
+        return components;
+    }
+
+    /** Decodes the page subsampled; stores its full size in size. Returns null if ImageIO can not read it. */
+    static BufferedImage readSubsampled(File file, int pageIndex, int[] size) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if(iis == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if(!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, false, true);
+                int index = pageIndex > 0 ? pageIndex - 1 : 0;
+                if(pageIndex <= 0 && reader.getNumImages(true) != 1) {
+                    return null; // all pages of a multi-page file
+                }
+                size[0] = reader.getWidth(index);
+                size[1] = reader.getHeight(index);
+                int step = Math.max(1, (Math.max(size[0], size[1]) + ANALYSIS_SIZE - 1) / ANALYSIS_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(index, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    static BufferedImage subsample(BufferedImage img, int step) {
+        int width = (img.getWidth() + step - 1) / step;
+        int height = (img.getHeight() + step - 1) / step;
+        BufferedImage sample = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                sample.setRGB(x, y, img.getRGB(x * step, y * step));
+            }
+        }
+        return sample;
+    }
+
+    /** Result of a skipped page: empty text or xml with a page marked as skipped. */
+    public static String emptyResult(String input, int width, int height, String outputFormat) {
+        if(Ocr.OUTPUT_FORMAT_XML.equals(outputFormat)) {
+            return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<asprise-ocr input=\"" + escapeXml(input) + "\">\n"
+                + "<page no=\"1\" width=\"" + width + "\" height=\"" + height + "\" skipped=\"blank\"/>\n</asprise-ocr>\n";
+        }
+        return "";
+    }
+
+    static String escapeXml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    public double getMaxInkCoverage() {
+        return maxInkCoverage;
+    }
+
+    /** Sets the max fraction of ink pixels of a blank page; default {@linkplain #DEFAULT_MAX_INK_COVERAGE}. */
+    public void setMaxInkCoverage(double maxInkCoverage) {
+        this.maxInkCoverage = maxInkCoverage;
+    }
+
+    public int getMaxComponents() {
+        return maxComponents;
+    }
+
+    /** Sets the max number of ink components of a blank page; default {@linkplain #DEFAULT_MAX_COMPONENTS}. */
+    public void setMaxComponents(int maxComponents) {
+        this.maxComponents = maxComponents;
+    }
+
+    /** Number of pages checked. */
+    public long getCheckedCount() {
+        return checkedCount.get();
+    }
+
+    /** Number of pages skipped as blank. */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /** Fraction of checked pages skipped as blank. */
+    public double getSkipRate() {
+        long checked = checkedCount.get();
+        return checked == 0 ? 0 : (double) skippedCount.get() / checked;
+    }
+}
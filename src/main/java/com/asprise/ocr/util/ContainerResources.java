@@ -0,0 +1,214 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * CPU and memory limits of the current process as set by Linux control groups (v1 or v2), e.g., by a container runtime.
+ * Limits that are not set or can not be read are reported as unknown (-1).
+ */
+public class ContainerResources {
+
+    static final String CGROUP_ROOT = "/sys/fs/cgroup";
+
+    /** Limits above this are regarded as not set (cgroup v1 reports "unlimited" as a page-aligned Long.MAX_VALUE). */
+    static final long UNLIMITED_THRESHOLD = Long.MAX_VALUE / 2;
+
+    final boolean cgroupV2;
+    final double cpuQuota;
+    final int cpusetCpus;
+    final long memoryLimit;
+
+    ContainerResources(boolean cgroupV2, double cpuQuota, int cpusetCpus, long memoryLimit) {
+        this.cgroupV2 = cgroupV2;
+        this.cpuQuota = cpuQuota;
+        this.cpusetCpus = cpusetCpus;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /** Reads the limits of the cgroups of the current process. */
+    public static ContainerResources detect() {
+        File unified = new File(CGROUP_ROOT, "cgroup.controllers");
+        if(unified.exists()) {
+            File dir = cgroupDir("", "");
+            double quota = -1;
+            String cpuMax = readFirstLine(new File(dir, "cpu.max")); // e.g., "200000 100000" or "max 100000"
+            if(cpuMax != null) {
+                String[] parts = StringUtils.split(cpuMax, null);
+                if(parts.length == 2 && !"max".equals(parts[0])) {
+                    quota = parseLong(parts[0], -1) / (double) parseLong(parts[1], 100000);
+                }
+            }
+            int cpus = countCpus(readFirstLine(new File(dir, "cpuset.cpus.effective")));
+            long memory = parseLong(readFirstLine(new File(dir, "memory.max")), -1);
+            return new ContainerResources(true, quota, cpus, normalizeLimit(memory));
+        }
+
+        File cpuDir = cgroupDir("cpu", "cpu");
+        long quotaUs = parseLong(readFirstLine(new File(cpuDir, "cpu.cfs_quota_us")), -1);
+        long periodUs = parseLong(readFirstLine(new File(cpuDir, "cpu.cfs_period_us")), -1);
+        double quota = quotaUs > 0 && periodUs > 0 ? quotaUs / (double) periodUs : -1;
+        int cpus = countCpus(readFirstLine(new File(cgroupDir("cpuset", "cpuset"), "cpuset.cpus")));
+        long memory = parseLong(readFirstLine(new File(cgroupDir("memory", "memory"), "memory.limit_in_bytes")), -1);
+        return new ContainerResources(false, quota, cpus, normalizeLimit(memory));
+    }
+
+    /**
+     * Number of CPUs the process may use: the CPU quota rounded up, the cpuset size and the processors visible to the JVM,
+     * whichever is the smallest.
+     */
+    public int getEffectiveCpus() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        if(cpusetCpus > 0) {
+            cpus = Math.min(cpus, cpusetCpus);
+        }
+        if(cpuQuota > 0) {
+            cpus = Math.min(cpus, Math.max(1, (int) Math.ceil(cpuQuota)));
+        }
+        return cpus;
+    }
+
+    /** CPU time the process may use per unit of wall time, e.g., 1.5 for "1500m"; -1 if not limited. */
+    public double getCpuQuota() {
+        return cpuQuota;
+    }
+
+    /** Number of CPUs in the cpuset of the process; -1 if unknown. */
+    public int getCpusetCpus() {
+        return cpusetCpus;
+    }
+
+    /** Memory limit in bytes; -1 if not limited. */
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public boolean isCgroupV2() {
+        return cgroupV2;
+    }
+
+    @Override
+    public String toString() {
+        return "cgroup " + (cgroupV2 ? "v2" : "v1") + ": cpu quota " + cpuQuota + ", cpuset " + cpusetCpus + ", memory limit " + memoryLimit;
+    }
+
+    /**
+     * Locates the directory of the cgroup of the current process for the given controller from /proc/self/cgroup,
+     * falling back to the mount point itself which is what a container with its own cgroup namespace sees.
+     * @param controller v1 controller name or "" for v2
+     * @param mountDir v1 mount directory under /sys/fs/cgroup or "" for v2
+     */
+    static File cgroupDir(String controller, String mountDir) {
+        File mount = mountDir.length() == 0 ? new File(CGROUP_ROOT) : new File(CGROUP_ROOT, mountDir);
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream("/proc/self/cgroup")));
+            String line;
+            while ((line = reader.readLine()) != null) { // e.g., "0::/kubepods/pod1/abc" or "4:cpu,cpuacct:/docker/abc"
+                int first = line.indexOf(':');
+                int second = line.indexOf(':', first + 1);
+                if(first < 0 || second < 0) {
+                    continue;
+                }
+                String controllers = line.substring(first + 1, second);
+                boolean match = controller.length() == 0 ? controllers.length() == 0 : ("," + controllers + ",").contains("," + controller + ",");
+                if(match) {
+                    File dir = new File(mount, line.substring(second + 1));
+                    if(dir.isDirectory()) {
+                        return dir;
+                    }
+                    break;
+                }
+            }
+        } catch (Throwable t) {
+            // not Linux or no access
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+        return mount;
+    }
+
+    /** Counts CPUs in a cpuset list, e.g., "0-3,6"; -1 if not available. */
+    static int countCpus(String list) {
+        if(StringUtils.isEmpty(list)) {
+            return -1;
+        }
+        int count = 0;
+        for(String range : StringUtils.split(list.trim(), ",")) {
+            int dash = range.indexOf('-');
+            try {
+                if(dash < 0) {
+                    Integer.parseInt(range.trim());
+                    count++;
+                } else {
+                    count += Integer.parseInt(range.substring(dash + 1).trim()) - Integer.parseInt(range.substring(0, dash).trim()) + 1;
+                }
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return count > 0 ? count : -1;
+    }
+
+    static long normalizeLimit(long limit) {
+        return limit <= 0 || limit > UNLIMITED_THRESHOLD ? -1 : limit;
+    }
+
+    static long parseLong(String s, long defaultValue) {
+        if(s == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue; // e.g., "max"
+        }
+    }
+
+    static String readFirstLine(File file) {
+        if(file == null || !file.canRead()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+            return reader.readLine();
+        } catch (Throwable t) {
+            return null;
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pages decoded by ImageIO, kept in a least-recently-used cache bounded by the memory they take.
+ * <p>Used to crop many regions out of the same page without decoding it again for each one. Entries are keyed by
+ * file path, size, modification time and page index so that a changed file is decoded afresh. Concurrent requests for
+ * the same page share a single decode. Pages larger than the whole cache are not cached; only the requested region is
+ * decoded for them.</p>
+ */
+public class DecodedPageCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    final long maxBytes;
+    long usedBytes;
+
+    /** Access ordered; guarded by this. */
+    final LinkedHashMap<PageKey, BufferedImage> pages = new LinkedHashMap<PageKey, BufferedImage>(16, 0.75f, true);
+    final ConcurrentHashMap<PageKey, FutureTask<BufferedImage>> loading = new ConcurrentHashMap<PageKey, FutureTask<BufferedImage>>();
+
+    final AtomicLong hitCount = new AtomicLong();
+    final AtomicLong missCount = new AtomicLong();
+
+    public DecodedPageCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /** @param maxBytes max memory taken by decoded pages */
+    public DecodedPageCache(long maxBytes) {
+        if(maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid max bytes: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the given region of a page, decoding the page unless it is cached. The returned image shares its data
+     * with the cached page and must not be modified.
+     * @param file image file readable by ImageIO
+     * @param pageIndex page index starting from 1
+     * @param region region to return; clipped to the page
+     * @return the region or null if ImageIO can not read the file.
+     */
+    public BufferedImage getRegion(File file, int pageIndex, Rectangle region) throws IOException {
+        PageKey key = new PageKey(file, pageIndex);
+        BufferedImage page;
+        synchronized (this) {
+            page = pages.get(key);
+        }
+        if(page != null) {
+            hitCount.incrementAndGet();
+            return crop(page, region);
+        }
+
+        missCount.incrementAndGet();
+        int[] size = readSize(file, pageIndex);
+        if(size == null) {
+            return null;
+        }
+        if(estimateBytes(size[0], size[1]) > maxBytes) {
+            return read(file, pageIndex, region); // too large to cache
+        }
+        page = load(key, file, pageIndex);
+        return page == null ? null : crop(page, region);
+    }
+
+    BufferedImage load(final PageKey key, final File file, final int pageIndex) throws IOException {
+        FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() throws Exception {
+                BufferedImage page = read(file, pageIndex, null);
+                if(page != null) {
+                    put(key, page);
+                }
+                return page;
+            }
+        });
+        FutureTask<BufferedImage> existing = loading.putIfAbsent(key, task);
+        if(existing == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+        } else {
+            task = existing;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding " + file);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to decode " + file + ": " + e.getCause());
+        }
+    }
+
+    synchronized void put(PageKey key, BufferedImage page) {
+        long bytes = estimateBytes(page);
+        BufferedImage previous = pages.put(key, page);
+        if(previous != null) {
+            usedBytes -= estimateBytes(previous);
+        }
+        usedBytes += bytes;
+        Iterator<Map.Entry<PageKey, BufferedImage>> it = pages.entrySet().iterator();
+        while(usedBytes > maxBytes && it.hasNext()) {
+            Map.Entry<PageKey, BufferedImage> eldest = it.next();
+            if(eldest.getKey().equals(key)) {
+                continue;
+            }
+            usedBytes -= estimateBytes(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    /** Decodes a page or only a region of it. */
+    static BufferedImage read(File file, int pageIndex, Rectangle region) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if(iis == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if(!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if(region != null) {
+                    Rectangle clipped = region.intersection(new Rectangle(0, 0, reader.getWidth(pageIndex - 1), reader.getHeight(pageIndex - 1)));
+                    if(clipped.isEmpty()) {
+                        throw new IOException("Region " + region + " is outside of page " + pageIndex + " of " + file);
+                    }
+                    param.setSourceRegion(clipped);
+                }
+                return reader.read(pageIndex - 1, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    /** Returns width and height of a page without decoding it; null if ImageIO can not read the file. */
+    static int[] readSize(File file, int pageIndex) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if(iis == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if(!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, false, true);
+                return new int[] {reader.getWidth(pageIndex - 1), reader.getHeight(pageIndex - 1)};
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    static BufferedImage crop(BufferedImage page, Rectangle region) throws IOException {
+        Rectangle clipped = region.intersection(new Rectangle(0, 0, page.getWidth(), page.getHeight()));
+        if(clipped.isEmpty()) {
+            throw new IOException("Region " + region + " is outside of the page");
+        }
+        return page.getSubimage(clipped.x, clipped.y, clipped.width, clipped.height);
+    }
+
+    /** Estimate for a page not decoded yet: 3 bytes per pixel, which covers the usual RGB and gray decodes. */
+    static long estimateBytes(int width, int height) {
+        return 3L * width * height;
+    }
+
+    static long estimateBytes(BufferedImage image) {
+        DataBuffer db = image.getRaster().getDataBuffer();
+        return (long) db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+    }
+
+    public synchronized void clear() {
+        pages.clear();
+        usedBytes = 0;
+    }
+
+    /** Memory taken by cached pages. */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    static class PageKey {
+        final String path;
+        final long length;
+        final long lastModified;
+        final int pageIndex;
+
+        PageKey(File file, int pageIndex) {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.pageIndex = pageIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) o;
+            return path.equals(other.path) && length == other.length && lastModified == other.lastModified && pageIndex == other.pageIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((path.hashCode() * 31 + (int) (length ^ (length >>> 32))) * 31 + (int) (lastModified ^ (lastModified >>> 32))) * 31 + pageIndex;
+        }
+    }
+}
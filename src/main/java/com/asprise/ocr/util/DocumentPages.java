@@ -0,0 +1,313 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Finds the number of pages of an input document without decoding it.
+ * <p>For PDF, the page tree is followed from the trailer to read the page count of its root node.</p>
+ */
+public class DocumentPages {
+
+    /**
+     * Returns the number of pages of the given file: PDF pages, TIFF directories or 1 for single page image formats.
+     * @throws IOException if the file can not be read or is malformed.
+     */
+    public static int countPages(File file) throws IOException {
+        byte[] header = readHeader(file, 8);
+        if(isPdf(header)) {
+            return countPdfPages(file);
+        } else if(isTiff(header)) {
+            return countTiffPages(file);
+        }
+        return 1;
+    }
+
+    static boolean isPdf(byte[] header) {
+        return header.length >= 4 && header[0] == '%' && header[1] == 'P' && header[2] == 'D' && header[3] == 'F';
+    }
+
+    static boolean isTiff(byte[] header) {
+        return header.length >= 4 && ((header[0] == 'I' && header[1] == 'I' && header[2] == 42 && header[3] == 0)
+            || (header[0] == 'M' && header[1] == 'M' && header[2] == 0 && header[3] == 42));
+    }
+
+    static byte[] readHeader(File file, int length) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[length];
+            int read = 0;
+            while(read < length) {
+                int n = in.read(buffer, read, length - read);
+                if(n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            if(read < length) {
+                byte[] shorter = new byte[read];
+                System.arraycopy(buffer, 0, shorter, 0, read);
+                return shorter;
+            }
+            return buffer;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Uses an ImageIO TIFF reader if one is installed; walks the chain of image file directories otherwise. */
+    static int countTiffPages(File file) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if(iis != null) {
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if(readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(iis, false, true);
+                        return reader.getNumImages(true);
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            } finally {
+                iis.close();
+            }
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            boolean littleEndian = raf.read() == 'I';
+            raf.seek(4);
+            long offset = readUnsignedInt(raf, littleEndian);
+            Set<Long> visited = new HashSet<Long>();
+            int pages = 0;
+            while(offset != 0) {
+                if(offset + 2 > raf.length() || !visited.add(offset)) {
+                    throw new IOException("Malformed TIFF directory chain in " + file);
+                }
+                raf.seek(offset);
+                int entries = readUnsignedShort(raf, littleEndian);
+                raf.seek(offset + 2 + 12L * entries);
+                offset = readUnsignedInt(raf, littleEndian);
+                pages++;
+            }
+            return pages;
+        } finally {
+            raf.close();
+        }
+    }
+
+    static int readUnsignedShort(RandomAccessFile raf, boolean littleEndian) throws IOException {
+        int b1 = raf.read();
+        int b2 = raf.read();
+        if((b1 | b2) < 0) {
+            throw new IOException("Unexpected end of TIFF file");
+        }
+        return littleEndian ? (b2 << 8) | b1 : (b1 << 8) | b2;
+    }
+
+    static long readUnsignedInt(RandomAccessFile raf, boolean littleEndian) throws IOException {
+        long low = readUnsignedShort(raf, littleEndian);
+        long high = readUnsignedShort(raf, littleEndian);
+        return littleEndian ? (high << 16) | low : (low << 16) | high;
+    }
+
+    /**
+     * Reads /Count of the root of the page tree; if the catalog can not be followed, e.g., as it is stored in a
+     * compressed object stream, reads /Count of the last page tree root written instead. Page objects are never counted
+     * as incrementally updated files keep the superseded ones.
+     * @throws IOException if the page count can not be determined; the file is then best recognized as a whole.
+     */
+    static int countPdfPages(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int pages = readPdfPageTreeCount(buffer);
+            if(pages <= 0) {
+                pages = readLastPageTreeRootCount(buffer);
+            }
+            if(pages <= 0) {
+                throw new IOException("Unable to find the page count of " + file + "; it might use compressed object streams.");
+            }
+            return pages;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Follows the /Root reference of the last trailer (or cross-reference stream) to the catalog, then its /Pages
+     * reference to the root of the page tree and returns its /Count; -1 if any of them can not be found.
+     */
+    static int readPdfPageTreeCount(MappedByteBuffer buffer) {
+        int root = lastIndexOf(buffer, "/Root", buffer.limit());
+        if(root < 0) {
+            return -1;
+        }
+        int[] catalogRef = readReference(buffer, root + 5);
+        int catalog = catalogRef == null ? -1 : findObject(buffer, catalogRef[0], catalogRef[1]);
+        int catalogPages = catalog < 0 ? -1 : indexOfInObject(buffer, "/Pages", catalog);
+        int[] pagesRef = catalogPages < 0 ? null : readReference(buffer, catalogPages + 6);
+        int pageTree = pagesRef == null ? -1 : findObject(buffer, pagesRef[0], pagesRef[1]);
+        int count = pageTree < 0 ? -1 : indexOfInObject(buffer, "/Count", pageTree);
+        if(count < 0) {
+            return -1;
+        }
+        long[] value = new long[1];
+        return readInteger(buffer, skipWhitespace(buffer, count + 6), value) < 0 || value[0] > Integer.MAX_VALUE ? -1 : (int) value[0];
+    }
+
+    /**
+     * Returns /Count of the last "/Type /Pages" dictionary without /Parent, i.e., the page tree root written by the
+     * most recent update of the file; -1 if there is none outside compressed object streams.
+     */
+    static int readLastPageTreeRootCount(MappedByteBuffer buffer) {
+        int limit = buffer.limit();
+        int type = limit;
+        while((type = lastIndexOf(buffer, "/Type", type)) >= 0) {
+            int p = skipWhitespace(buffer, type + 5);
+            if(!matches(buffer, p, "/Pages") || (p + 6 < limit && isPdfNameChar(buffer.get(p + 6)))) {
+                continue;
+            }
+            int start = lastIndexOf(buffer, "obj", type); // "num gen obj" or the "endobj" of the previous object
+            if(start < 0 || indexOfInObject(buffer, "/Parent", start + 3) >= 0) {
+                continue;
+            }
+            int count = indexOfInObject(buffer, "/Count", start + 3);
+            if(count < 0) {
+                continue;
+            }
+            long[] value = new long[1];
+            return readInteger(buffer, skipWhitespace(buffer, count + 6), value) < 0 || value[0] > Integer.MAX_VALUE ? -1 : (int) value[0];
+        }
+        return -1;
+    }
+
+    /** Reads an indirect reference "num gen R" at the given position; returns {num, gen} or null. */
+    static int[] readReference(MappedByteBuffer buffer, int pos) {
+        long[] num = new long[1];
+        long[] gen = new long[1];
+        int p = readInteger(buffer, skipWhitespace(buffer, pos), num);
+        if(p < 0) {
+            return null;
+        }
+        p = readInteger(buffer, skipWhitespace(buffer, p), gen);
+        if(p < 0) {
+            return null;
+        }
+        p = skipWhitespace(buffer, p);
+        if(p >= buffer.limit() || buffer.get(p) != 'R' || num[0] > Integer.MAX_VALUE || gen[0] > Integer.MAX_VALUE) {
+            return null;
+        }
+        return new int[] {(int) num[0], (int) gen[0]};
+    }
+
+    /** Returns the position after "num gen obj" of the last (i.e., most recently updated) definition of the object; -1 if not found. */
+    static int findObject(MappedByteBuffer buffer, int num, int gen) {
+        String header = num + " " + gen + " obj";
+        int from = buffer.limit();
+        while((from = lastIndexOf(buffer, header, from)) >= 0) {
+            if(from == 0 || isPdfWhitespace(buffer.get(from - 1))) {
+                return from + header.length();
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the position of the given key in the object starting at the given position; -1 if not found before "endobj". */
+    static int indexOfInObject(MappedByteBuffer buffer, String key, int pos) {
+        int limit = buffer.limit();
+        for(int i = pos; i < limit; i++) {
+            byte b = buffer.get(i);
+            if(b == 'e' && matches(buffer, i, "endobj")) {
+                return -1;
+            }
+            if(b == '/' && matches(buffer, i, key) && (i + key.length() >= limit || !isPdfNameChar(buffer.get(i + key.length())))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Reads a non-negative integer; returns the position after it or -1 if there is none. */
+    static int readInteger(MappedByteBuffer buffer, int pos, long[] value) {
+        int p = pos;
+        long v = 0;
+        while(p < buffer.limit() && buffer.get(p) >= '0' && buffer.get(p) <= '9' && p - pos < 12) {
+            v = v * 10 + (buffer.get(p) - '0');
+            p++;
+        }
+        if(p == pos) {
+            return -1;
+        }
+        value[0] = v;
+        return p;
+    }
+
+    static int skipWhitespace(MappedByteBuffer buffer, int pos) {
+        while(pos < buffer.limit() && isPdfWhitespace(buffer.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /** Returns the position of the last occurrence of s starting before the given position; -1 if not found. */
+    static int lastIndexOf(MappedByteBuffer buffer, String s, int before) {
+        for(int i = Math.min(before - 1, buffer.limit() - s.length()); i >= 0; i--) {
+            if(buffer.get(i) == s.charAt(0) && matches(buffer, i, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean matches(MappedByteBuffer buffer, int pos, String s) {
+        if(pos + s.length() > buffer.limit()) {
+            return false;
+        }
+        for(int i = 0; i < s.length(); i++) {
+            if(buffer.get(pos + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isPdfWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0;
+    }
+
+    static boolean isPdfNameChar(byte b) {
+        return !isPdfWhitespace(b) && b != '/' && b != '>' && b != '<' && b != '[' && b != ']' && b != '(' && b != ')';
+    }
+}
@@ -0,0 +1,65 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+/**
+ * Detects input formats read by the native engine from their magic bytes.
+ */
+public class ImageFormats {
+
+    /** Number of leading bytes needed by {@linkplain #detectExtension(byte[], int)}. */
+    public static final int MAGIC_LENGTH = 8;
+
+    /**
+     * Returns the file extension of the format of the given leading bytes if the engine reads it directly: jpg, png,
+     * tif, pdf, bmp, gif or pnm; null otherwise.
+     * @param head leading bytes of the input
+     * @param length number of valid bytes in head
+     */
+    public static String detectExtension(byte[] head, int length) {
+        if(length >= 3 && u(head[0]) == 0xFF && u(head[1]) == 0xD8 && u(head[2]) == 0xFF) {
+            return "jpg";
+        }
+        if(length >= 8 && u(head[0]) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G'
+            && head[4] == 0x0D && head[5] == 0x0A && head[6] == 0x1A && head[7] == 0x0A) {
+            return "png";
+        }
+        if(length >= 4 && ((head[0] == 'I' && head[1] == 'I' && head[2] == 42 && head[3] == 0)
+            || (head[0] == 'M' && head[1] == 'M' && head[2] == 0 && head[3] == 42))) {
+            return "tif";
+        }
+        if(length >= 4 && head[0] == '%' && head[1] == 'P' && head[2] == 'D' && head[3] == 'F') {
+            return "pdf";
+        }
+        if(length >= 2 && head[0] == 'B' && head[1] == 'M') {
+            return "bmp";
+        }
+        if(length >= 4 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F' && head[3] == '8') {
+            return "gif";
+        }
+        if(length >= 3 && head[0] == 'P' && head[1] >= '1' && head[1] <= '6'
+            && (head[2] == ' ' || head[2] == '\n' || head[2] == '\r' || head[2] == '\t')) {
+            return "pnm";
+        }
+        return null;
+    }
+
+    static int u(byte b) {
+        return b & 0xFF;
+    }
+}
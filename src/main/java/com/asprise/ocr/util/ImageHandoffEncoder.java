@@ -0,0 +1,371 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes images to be handed over to the native engine.
+ * <p>With {@linkplain Format#PNM} (default) images are written uncompressed, straight from the data buffer of the
+ * raster for the common image types: bi-level images as PBM (1 bit per pixel), gray images as PGM (8 bits per pixel)
+ * and anything else as PPM (24 bits per pixel, alpha composed over white). This costs more space than PNG but avoids
+ * compressing every image only for the engine to decompress it right away. Use {@linkplain Format#PNG} to get the
+ * previous behavior; set the default with {@linkplain #setDefaultFormat(Format)} or system property
+ * <code>ocr.handoff.format</code>.</p>
+ */
+public class ImageHandoffEncoder {
+
+    /** Encoding of handoff images. */
+    public static enum Format {
+        /** Uncompressed PBM/PGM/PPM. */
+        PNM,
+        /** Deflate compressed PNG through ImageIO. */
+        PNG
+    }
+
+    static final int BUFFER_SIZE = 256 * 1024;
+    static final int MAX_POOLED_BUFFERS = 16;
+
+    static final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    static volatile Format defaultFormat = readDefaultFormat();
+
+    static final int PBM = 4;
+    static final int PGM = 5;
+    static final int PPM = 6;
+
+    static Format readDefaultFormat() {
+        String format = System.getProperty("ocr.handoff.format");
+        if(format != null) {
+            try {
+                return Format.valueOf(format.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // default
+            }
+        }
+        return Format.PNM;
+    }
+
+    public static Format getDefaultFormat() {
+        return defaultFormat;
+    }
+
+    public static void setDefaultFormat(Format format) {
+        if(format == null) {
+            throw new IllegalArgumentException("format can not be null");
+        }
+        defaultFormat = format;
+    }
+
+    /** File name suffix for the given image encoded in the default format, e.g., ".pgm". */
+    public static String getSuffix(RenderedImage img) {
+        switch (pnmType(img)) {
+            case PBM:
+                return ".pbm";
+            case PGM:
+                return ".pgm";
+            case PPM:
+                return ".ppm";
+            default:
+                return ".png";
+        }
+    }
+
+    /** Approximate size in bytes of the given image encoded in the default format; PNG is assumed to take 1 byte per pixel. */
+    public static long estimateSize(RenderedImage img) {
+        long width = img.getWidth();
+        long height = img.getHeight();
+        switch (pnmType(img)) {
+            case PBM:
+                return (width + 7) / 8 * height + 32;
+            case PPM:
+                return 3 * width * height + 32;
+            default:
+                return width * height + 32;
+        }
+    }
+
+    /** Writes the image to the given file in the default format; the file name should end with {@linkplain #getSuffix(RenderedImage)}. */
+    public static void write(RenderedImage img, File file) throws IOException {
+        int type = pnmType(img);
+        if(type == 0) {
+            if(!ImageIO.write(img, "png", file)) {
+                throw new IOException("No PNG writer available");
+            }
+            return;
+        }
+
+        BufferedImage image = (BufferedImage) img;
+        FileOutputStream out = new FileOutputStream(file);
+        ByteBuffer buffer = borrowBuffer();
+        try {
+            ChannelWriter writer = new ChannelWriter(out.getChannel(), buffer);
+            writer.put(("P" + type + "\n" + image.getWidth() + " " + image.getHeight() + "\n" + (type == PBM ? "" : "255\n")).getBytes("US-ASCII"));
+            if(type == PBM) {
+                writePbm(image, writer);
+            } else if(type == PGM) {
+                writePgm(image, writer);
+            } else {
+                writePpm(image, writer);
+            }
+            writer.flush();
+        } finally {
+            returnBuffer(buffer);
+            out.close();
+        }
+    }
+
+    /** The PNM type to write the image as; 0 for PNG. */
+    static int pnmType(RenderedImage img) {
+        if(defaultFormat != Format.PNM || !(img instanceof BufferedImage)) {
+            return 0;
+        }
+        BufferedImage image = (BufferedImage) img;
+        if(image.getWidth() == 0 || image.getHeight() == 0) {
+            return 0;
+        }
+        switch (image.getType()) {
+            case BufferedImage.TYPE_BYTE_BINARY:
+                return image.getColorModel().getPixelSize() == 1 ? PBM : PPM;
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_USHORT_GRAY:
+                return PGM;
+            default:
+                return PPM;
+        }
+    }
+
+    /** PBM rows are packed most significant bit first and padded to a byte like the raster; 1 means black. */
+    static void writePbm(BufferedImage image, ChannelWriter writer) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        IndexColorModel cm = (IndexColorModel) image.getColorModel();
+        boolean zeroIsBlack = luminance(cm.getRGB(0)) <= luminance(cm.getRGB(1));
+        int rowBytes = (width + 7) / 8;
+
+        int tx = -raster.getSampleModelTranslateX();
+        int ty = -raster.getSampleModelTranslateY();
+        if(raster.getSampleModel() instanceof MultiPixelPackedSampleModel && raster.getDataBuffer() instanceof DataBufferByte) {
+            MultiPixelPackedSampleModel sm = (MultiPixelPackedSampleModel) raster.getSampleModel();
+            int bitOffset = sm.getDataBitOffset() + tx;
+            if(bitOffset % 8 == 0) {
+                byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                int stride = sm.getScanlineStride();
+                int base = raster.getDataBuffer().getOffset() + ty * stride + bitOffset / 8;
+                int tailMask = width % 8 == 0 ? 0xFF : (0xFF << (8 - width % 8)) & 0xFF;
+                for(int y = 0; y < height; y++) {
+                    int start = base + y * stride;
+                    for(int i = 0; i < rowBytes; i++) {
+                        int b = zeroIsBlack ? ~data[start + i] : data[start + i];
+                        writer.put((byte) (i == rowBytes - 1 ? b & tailMask : b));
+                    }
+                }
+                return;
+            }
+        }
+
+        int[] samples = new int[width];
+        for(int y = 0; y < height; y++) {
+            raster.getSamples(0, y, width, 1, 0, samples);
+            for(int i = 0; i < rowBytes; i++) {
+                int b = 0;
+                for(int bit = 0; bit < 8; bit++) {
+                    int x = i * 8 + bit;
+                    if(x < width && (samples[x] == 0) == zeroIsBlack) {
+                        b |= 0x80 >> bit;
+                    }
+                }
+                writer.put((byte) b);
+            }
+        }
+    }
+
+    static void writePgm(BufferedImage image, ChannelWriter writer) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        if(image.getType() == BufferedImage.TYPE_BYTE_GRAY && raster.getSampleModel() instanceof ComponentSampleModel
+            && raster.getDataBuffer() instanceof DataBufferByte) {
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            if(sm.getPixelStride() == 1) {
+                byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                int stride = sm.getScanlineStride();
+                int base = raster.getDataBuffer().getOffset() + sm.getBandOffsets()[0]
+                    - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+                for(int y = 0; y < height; y++) {
+                    writer.put(data, base + y * stride, width);
+                }
+                return;
+            }
+        }
+
+        int shift = raster.getSampleModel().getSampleSize(0) - 8;
+        int[] samples = new int[width];
+        for(int y = 0; y < height; y++) {
+            raster.getSamples(0, y, width, 1, 0, samples);
+            for(int x = 0; x < width; x++) {
+                writer.put((byte) (shift > 0 ? samples[x] >> shift : samples[x]));
+            }
+        }
+    }
+
+    static void writePpm(BufferedImage image, ChannelWriter writer) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        int type = image.getType();
+        DataBuffer db = raster.getDataBuffer();
+        int tx = -raster.getSampleModelTranslateX();
+        int ty = -raster.getSampleModelTranslateY();
+
+        if(type == BufferedImage.TYPE_3BYTE_BGR && db instanceof DataBufferByte && raster.getSampleModel() instanceof ComponentSampleModel) {
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            byte[] data = ((DataBufferByte) db).getData();
+            int stride = sm.getScanlineStride();
+            int pixelStride = sm.getPixelStride();
+            int[] bandOffsets = sm.getBandOffsets();
+            for(int y = 0; y < height; y++) {
+                int p = db.getOffset() + (ty + y) * stride + tx * pixelStride;
+                for(int x = 0; x < width; x++, p += pixelStride) {
+                    writer.put(data[p + bandOffsets[0]], data[p + bandOffsets[1]], data[p + bandOffsets[2]]);
+                }
+            }
+            return;
+        }
+
+        if((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_BGR) && db instanceof DataBufferInt
+            && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            int[] data = ((DataBufferInt) db).getData();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            boolean bgr = type == BufferedImage.TYPE_INT_BGR;
+            for(int y = 0; y < height; y++) {
+                int p = db.getOffset() + (ty + y) * stride + tx;
+                for(int x = 0; x < width; x++) {
+                    int v = data[p + x];
+                    byte r = (byte) (v >> 16);
+                    byte b = (byte) v;
+                    writer.put(bgr ? b : r, (byte) (v >> 8), bgr ? r : b);
+                }
+            }
+            return;
+        }
+
+        int[] argb = new int[width];
+        for(int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, argb, 0, width);
+            for(int x = 0; x < width; x++) {
+                int v = argb[x];
+                int a = v >>> 24;
+                if(a == 255) {
+                    writer.put((byte) (v >> 16), (byte) (v >> 8), (byte) v);
+                } else { // composed over white
+                    writer.put(overWhite((v >> 16) & 0xFF, a), overWhite((v >> 8) & 0xFF, a), overWhite(v & 0xFF, a));
+                }
+            }
+        }
+    }
+
+    static byte overWhite(int c, int alpha) {
+        return (byte) ((c * alpha + 255 * (255 - alpha)) / 255);
+    }
+
+    static int luminance(int rgb) {
+        return (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114) / 1000;
+    }
+
+    static ByteBuffer borrowBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if(buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    static void returnBuffer(ByteBuffer buffer) {
+        if(bufferPool.size() < MAX_POOLED_BUFFERS) {
+            bufferPool.offer(buffer);
+        }
+    }
+
+    /** Fills a direct buffer and writes it to the channel whenever it is full. */
+    static class ChannelWriter {
+        final FileChannel channel;
+        final ByteBuffer buffer;
+
+        ChannelWriter(FileChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        void put(byte b) throws IOException {
+            if(!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put(b);
+        }
+
+        void put(byte b1, byte b2, byte b3) throws IOException {
+            if(buffer.remaining() < 3) {
+                flush();
+            }
+            buffer.put(b1).put(b2).put(b3);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            put(bytes, 0, bytes.length);
+        }
+
+        void put(byte[] bytes, int offset, int length) throws IOException {
+            while(length > 0) {
+                if(!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
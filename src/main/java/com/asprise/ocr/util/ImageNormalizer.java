@@ -0,0 +1,568 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pipeline of steps that reduce an image to what the engine needs before it is handed over, e.g., a 600 DPI color
+ * scan of black and white text to a 300 DPI bi-level image.
+ * <p>Built-in steps: {@linkplain Downscale} to a target DPI, {@linkplain Grayscale} and binarization with a global
+ * ({@linkplain OtsuBinarize}) or adaptive ({@linkplain SauvolaBinarize}) threshold; custom steps extend
+ * {@linkplain Step}. Each step can be switched off and records the time it takes, so its gain can be measured on a
+ * given corpus. {@linkplain #normalizeAsync(RenderedImage, int)} runs the pipeline on a bounded pool of daemon
+ * threads; when the pool is saturated the submitting thread runs it.</p>
+ * <pre>ImageNormalizer normalizer = new ImageNormalizer(new ImageNormalizer.Downscale(300),
+ *     new ImageNormalizer.Grayscale(), new ImageNormalizer.OtsuBinarize());
+ * executor.setImageNormalizer(normalizer);</pre>
+ */
+public class ImageNormalizer {
+
+    /** DPI assumed for images whose resolution is not given. */
+    public static final int DEFAULT_DPI = 300;
+
+    /** A step of the pipeline; implementations must be thread-safe. */
+    public static abstract class Step {
+        final String name;
+        volatile boolean enabled = true;
+        final AtomicLong invocationCount = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+
+        protected Step(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Transforms the image.
+         * @param img the image, not to be modified
+         * @param dpi resolution of the image
+         * @return the transformed image or img itself if there is nothing to do
+         */
+        protected abstract BufferedImage apply(BufferedImage img, int dpi);
+
+        /**
+         * Returns true if the step may change the size of the image. Such steps are skipped for parts of a page, e.g.,
+         * regions and tiles, whose result coordinates must stay those of the page.
+         */
+        public boolean isGeometric() {
+            return false;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /** Number of times this step has run. */
+        public long getInvocationCount() {
+            return invocationCount.get();
+        }
+
+        /** Total time spent in this step in nanoseconds. */
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public double getAverageMillis() {
+            long count = invocationCount.get();
+            return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+        }
+
+        @Override
+        public String toString() {
+            return name + (enabled ? "" : " (disabled)") + ": " + invocationCount.get() + " runs, avg " + String.format("%.2f", getAverageMillis()) + " ms";
+        }
+    }
+
+    final List<Step> steps;
+    volatile boolean enabled = true;
+    final ThreadPoolExecutor pool;
+    final int defaultDpi;
+
+    /** A pipeline of the given steps run by as many threads as half of the CPU cores. */
+    public ImageNormalizer(Step... steps) {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), DEFAULT_DPI, steps);
+    }
+
+    /**
+     * @param threads max number of images normalized concurrently
+     * @param defaultDpi resolution assumed for images whose DPI is not given
+     * @param steps the steps in order
+     */
+    public ImageNormalizer(int threads, int defaultDpi, Step... steps) {
+        if(threads < 1 || defaultDpi < 1) {
+            throw new IllegalArgumentException("Invalid threads " + threads + " or dpi " + defaultDpi);
+        }
+        this.steps = Collections.unmodifiableList(new ArrayList<Step>(Arrays.asList(steps)));
+        this.defaultDpi = defaultDpi;
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(2 * threads),
+            new NamedThreadFactory("ocr-normalizer", true), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /** Downscale to 300 DPI, grayscale and Otsu binarization. */
+    public static ImageNormalizer createDefault() {
+        return new ImageNormalizer(new Downscale(DEFAULT_DPI), new Grayscale(), new OtsuBinarize());
+    }
+
+    /**
+     * Runs the enabled steps on the image in the calling thread.
+     * @param img the image, which is not modified
+     * @param dpi resolution of the image or 0 if unknown
+     */
+    public BufferedImage normalize(RenderedImage img, int dpi) {
+        return normalize(img, dpi, true);
+    }
+
+    /**
+     * Runs the enabled steps on the image in the calling thread.
+     * @param img the image, which is not modified
+     * @param dpi resolution of the image or 0 if unknown
+     * @param geometric false to skip the steps that may change the size of the image, see {@linkplain Step#isGeometric()}
+     */
+    public BufferedImage normalize(RenderedImage img, int dpi, boolean geometric) {
+        BufferedImage image = toBufferedImage(img);
+        if(!enabled) {
+            return image;
+        }
+        int currentDpi = dpi > 0 ? dpi : defaultDpi;
+        for(Step step : steps) {
+            if(!step.enabled || (!geometric && step.isGeometric())) {
+                continue;
+            }
+            long start = System.nanoTime();
+            BufferedImage result = step.apply(image, currentDpi);
+            step.totalNanos.addAndGet(System.nanoTime() - start);
+            step.invocationCount.incrementAndGet();
+            if(result != image) {
+                currentDpi = (int) Math.round((double) currentDpi * result.getWidth() / image.getWidth());
+                image = result;
+            }
+        }
+        return image;
+    }
+
+    /** Runs {@linkplain #normalize(RenderedImage, int)} on the pool of this normalizer. */
+    public Future<BufferedImage> normalizeAsync(final RenderedImage img, final int dpi) {
+        return pool.submit(new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() throws Exception {
+                return normalize(img, dpi);
+            }
+        });
+    }
+
+    /** The pool running asynchronous normalization, e.g., to run callbacks that normalize images. */
+    public ExecutorService getExecutor() {
+        return pool;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /** Returns the step of the given name or null. */
+    public Step getStep(String name) {
+        for(Step step : steps) {
+            if(step.name.equals(name)) {
+                return step;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Switches the whole pipeline on or off; when off, images are passed through unchanged. */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ImageNormalizer" + (enabled ? "" : " (disabled)"));
+        for(Step step : steps) {
+            sb.append("\n  ").append(step);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes the first image of the stream with ImageIO and stores its DPI read from the metadata, or 0 if absent, in
+     * dpi[0]. Returns null if ImageIO can not read the stream.
+     */
+    public static BufferedImage read(InputStream in, int[] dpi) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(in);
+        if(iis == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if(!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, false);
+                BufferedImage img = reader.read(0);
+                dpi[0] = ImageQualityEstimator.readDpi(reader.getImageMetadata(0));
+                return img;
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    static BufferedImage toBufferedImage(RenderedImage img) {
+        if(img instanceof BufferedImage) {
+            return (BufferedImage) img;
+        }
+        ColorModel cm = img.getColorModel();
+        WritableRaster raster = cm.createCompatibleWritableRaster(img.getWidth(), img.getHeight());
+        img.copyData(raster.createWritableTranslatedChild(img.getMinX(), img.getMinY()));
+        return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+    }
+
+    /** Gray levels of the image, composited over white, in a new TYPE_BYTE_GRAY image unless it already is one. */
+    static BufferedImage toGray(BufferedImage img) {
+        if(img.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return img;
+        }
+        int width = img.getWidth();
+        int height = img.getHeight();
+        BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] out = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        int[] row = new int[width];
+        for(int y = 0; y < height; y++) {
+            img.getRGB(0, y, width, 1, row, 0, width);
+            int offset = y * width;
+            for(int x = 0; x < width; x++) {
+                int argb = row[x];
+                int alpha = argb >>> 24;
+                int luminance = (((argb >> 16) & 0xFF) * 299 + ((argb >> 8) & 0xFF) * 587 + (argb & 0xFF) * 114) / 1000;
+                out[offset + x] = (byte) ((luminance * alpha + 255 * (255 - alpha)) / 255);
+            }
+        }
+        return gray;
+    }
+
+    /** Returns the samples of a TYPE_BYTE_GRAY image as a packed width * height array, copying only if needed. */
+    static byte[] graySamples(BufferedImage gray) {
+        Raster raster = gray.getRaster();
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        if(data.length == width * height && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+            && raster.getDataBuffer().getOffset() == 0) {
+            return data;
+        }
+        byte[] samples = new byte[width * height];
+        raster.getDataElements(0, 0, width, height, samples);
+        return samples;
+    }
+
+    /** A bi-level image of the given gray samples: a pixel is black if its sample is below its threshold. */
+    static BufferedImage binarize(int width, int height, byte[] gray, Thresholds thresholds) {
+        BufferedImage binary = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY); // 0 black, 1 white
+        byte[] out = ((DataBufferByte) binary.getRaster().getDataBuffer()).getData();
+        int stride = (width + 7) / 8;
+        for(int y = 0; y < height; y++) {
+            thresholds.startRow(y);
+            int offset = y * width;
+            int outOffset = y * stride;
+            for(int x = 0; x < width; x++) {
+                if((gray[offset + x] & 0xFF) >= thresholds.get(x)) {
+                    out[outOffset + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                }
+            }
+        }
+        return binary;
+    }
+
+    interface Thresholds {
+        void startRow(int y);
+
+        int get(int x);
+    }
+
+    /** Scales images of a higher resolution down to the target DPI. */
+    public static class Downscale extends Step {
+        final int targetDpi;
+
+        public Downscale(int targetDpi) {
+            super("downscale");
+            if(targetDpi < 1) {
+                throw new IllegalArgumentException("Invalid target DPI: " + targetDpi);
+            }
+            this.targetDpi = targetDpi;
+        }
+
+        @Override
+        public boolean isGeometric() {
+            return true;
+        }
+
+        @Override
+        protected BufferedImage apply(BufferedImage img, int dpi) {
+            if(dpi <= targetDpi) {
+                return img;
+            }
+            int width = Math.max(1, (int) Math.round((double) img.getWidth() * targetDpi / dpi));
+            int height = Math.max(1, (int) Math.round((double) img.getHeight() * targetDpi / dpi));
+            BufferedImage current = img;
+            // halves first as a single bilinear pass over a large factor skips pixels
+            while(current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+                current = scale(current, current.getWidth() / 2, current.getHeight() / 2);
+            }
+            return current.getWidth() == width && current.getHeight() == height ? current : scale(current, width, height);
+        }
+
+        static BufferedImage scale(BufferedImage img, int width, int height) {
+            boolean gray = img.getType() == BufferedImage.TYPE_BYTE_GRAY || img.getType() == BufferedImage.TYPE_BYTE_BINARY;
+            BufferedImage scaled = new BufferedImage(width, height, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scaled.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.setColor(java.awt.Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.drawImage(img, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            return scaled;
+        }
+
+        public int getTargetDpi() {
+            return targetDpi;
+        }
+    }
+
+    /** Converts color images to 8-bit gray. */
+    public static class Grayscale extends Step {
+        public Grayscale() {
+            super("grayscale");
+        }
+
+        @Override
+        protected BufferedImage apply(BufferedImage img, int dpi) {
+            if(img.getType() == BufferedImage.TYPE_BYTE_BINARY && img.getColorModel().getPixelSize() == 1) {
+                return img;
+            }
+            return toGray(img);
+        }
+    }
+
+    /** Binarizes with a single threshold chosen by Otsu's method; suited to evenly lit scans. */
+    public static class OtsuBinarize extends Step {
+        public OtsuBinarize() {
+            super("otsu");
+        }
+
+        @Override
+        protected BufferedImage apply(BufferedImage img, int dpi) {
+            if(img.getType() == BufferedImage.TYPE_BYTE_BINARY && img.getColorModel().getPixelSize() == 1) {
+                return img;
+            }
+            BufferedImage gray = toGray(img);
+            byte[] samples = graySamples(gray);
+            final int threshold = threshold(samples);
+            return binarize(gray.getWidth(), gray.getHeight(), samples, new Thresholds() {
+                @Override
+                public void startRow(int y) {
+                }
+
+                @Override
+                public int get(int x) {
+                    return threshold;
+                }
+            });
+        }
+
+        /** Returns the threshold maximizing the between-class variance; pixels below it are black. */
+        static int threshold(byte[] samples) {
+            long[] histogram = new long[256];
+            for(byte sample : samples) {
+                histogram[sample & 0xFF]++;
+            }
+            long total = samples.length;
+            double sum = 0;
+            for(int i = 0; i < 256; i++) {
+                sum += (double) i * histogram[i];
+            }
+            double sumBackground = 0;
+            long weightBackground = 0;
+            double bestVariance = -1;
+            int best = 128;
+            for(int t = 0; t < 256; t++) {
+                weightBackground += histogram[t];
+                if(weightBackground == 0) {
+                    continue;
+                }
+                long weightForeground = total - weightBackground;
+                if(weightForeground == 0) {
+                    break;
+                }
+                sumBackground += (double) t * histogram[t];
+                double meanBackground = sumBackground / weightBackground;
+                double meanForeground = (sum - sumBackground) / weightForeground;
+                double variance = (double) weightBackground * weightForeground * (meanBackground - meanForeground) * (meanBackground - meanForeground);
+                if(variance > bestVariance) {
+                    bestVariance = variance;
+                    best = t + 1;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Binarizes with a threshold per pixel computed by Sauvola's method from the mean and standard deviation of its
+     * neighbourhood; suited to unevenly lit or stained documents. Memory used is proportional to the image width.
+     */
+    public static class SauvolaBinarize extends Step {
+        final int windowSizeAt300Dpi;
+        final double k;
+
+        /** Window of 31 pixels at 300 DPI and k = 0.34. */
+        public SauvolaBinarize() {
+            this(31, 0.34);
+        }
+
+        /**
+         * @param windowSizeAt300Dpi side of the neighbourhood at 300 DPI; scaled with the resolution of the image
+         * @param k sensitivity to the standard deviation, typically 0.2 to 0.5
+         */
+        public SauvolaBinarize(int windowSizeAt300Dpi, double k) {
+            super("sauvola");
+            if(windowSizeAt300Dpi < 3 || k <= 0) {
+                throw new IllegalArgumentException("Invalid window size " + windowSizeAt300Dpi + " or k " + k);
+            }
+            this.windowSizeAt300Dpi = windowSizeAt300Dpi;
+            this.k = k;
+        }
+
+        @Override
+        protected BufferedImage apply(BufferedImage img, int dpi) {
+            if(img.getType() == BufferedImage.TYPE_BYTE_BINARY && img.getColorModel().getPixelSize() == 1) {
+                return img;
+            }
+            BufferedImage gray = toGray(img);
+            final byte[] samples = graySamples(gray);
+            final int width = gray.getWidth();
+            final int height = gray.getHeight();
+            final int radius = Math.max(1, windowSizeAt300Dpi * dpi / 300 / 2);
+            return binarize(width, height, samples, new Thresholds() {
+                // sums over the rows of the window of each column, slid down as rows advance
+                final long[] columnSums = new long[width];
+                final long[] columnSquareSums = new long[width];
+                final int[] thresholds = new int[width];
+                int top;
+                int bottom = -1;
+
+                @Override
+                public void startRow(int y) {
+                    int newTop = Math.max(0, y - radius);
+                    int newBottom = Math.min(height - 1, y + radius);
+                    while(bottom < newBottom) {
+                        addRow(++bottom, 1);
+                    }
+                    while(top < newTop) {
+                        addRow(top++, -1);
+                    }
+                    int rows = bottom - top + 1;
+                    long sum = 0;
+                    long squareSum = 0;
+                    int left = 0;
+                    int right = -1;
+                    for(int x = 0; x < width; x++) {
+                        int newLeft = Math.max(0, x - radius);
+                        int newRight = Math.min(width - 1, x + radius);
+                        while(right < newRight) {
+                            right++;
+                            sum += columnSums[right];
+                            squareSum += columnSquareSums[right];
+                        }
+                        while(left < newLeft) {
+                            sum -= columnSums[left];
+                            squareSum -= columnSquareSums[left];
+                            left++;
+                        }
+                        long n = (long) rows * (right - left + 1);
+                        double mean = (double) sum / n;
+                        double variance = Math.max(0, (double) squareSum / n - mean * mean);
+                        thresholds[x] = (int) Math.ceil(mean * (1 + k * (Math.sqrt(variance) / 128 - 1)));
+                    }
+                }
+
+                void addRow(int row, int sign) {
+                    int offset = row * width;
+                    for(int x = 0; x < width; x++) {
+                        int v = samples[offset + x] & 0xFF;
+                        columnSums[x] += sign * v;
+                        columnSquareSums[x] += sign * v * v;
+                    }
+                }
+
+                @Override
+                public int get(int x) {
+                    return thresholds[x];
+                }
+            });
+        }
+    }
+}
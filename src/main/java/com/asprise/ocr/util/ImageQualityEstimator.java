@@ -0,0 +1,211 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Estimates how readable an image is from a downsampled copy: sharpness as the variance of its Laplacian, contrast as
+ * the range between the darkest and brightest 5% of pixels, and effective DPI from the image metadata or, if absent,
+ * from its width assuming it spans a page of {@linkplain #getAssumedPageWidthInches()}.
+ */
+public class ImageQualityEstimator {
+
+    /** Longer side of the downsampled copy analyzed. */
+    public static final int ANALYSIS_SIZE = 1000;
+    public static final double DEFAULT_ASSUMED_PAGE_WIDTH_INCHES = 8.5;
+
+    /** Quality measures of an image. */
+    public static class Quality {
+        final double sharpness;
+        final int contrast;
+        final int effectiveDpi;
+        final boolean dpiFromMetadata;
+
+        public Quality(double sharpness, int contrast, int effectiveDpi, boolean dpiFromMetadata) {
+            this.sharpness = sharpness;
+            this.contrast = contrast;
+            this.effectiveDpi = effectiveDpi;
+            this.dpiFromMetadata = dpiFromMetadata;
+        }
+
+        /** Variance of the Laplacian of the gray levels; low values indicate a blurred image. */
+        public double getSharpness() {
+            return sharpness;
+        }
+
+        /** Difference between the 95th and the 5th percentile of the gray levels, 0 to 255. */
+        public int getContrast() {
+            return contrast;
+        }
+
+        public int getEffectiveDpi() {
+            return effectiveDpi;
+        }
+
+        /** True if the DPI was read from the image metadata rather than estimated from its width. */
+        public boolean isDpiFromMetadata() {
+            return dpiFromMetadata;
+        }
+
+        @Override
+        public String toString() {
+            return "sharpness=" + String.format("%.1f", sharpness) + ", contrast=" + contrast + ", dpi=" + effectiveDpi
+                + (dpiFromMetadata ? "" : " (estimated)");
+        }
+    }
+
+    volatile double assumedPageWidthInches = DEFAULT_ASSUMED_PAGE_WIDTH_INCHES;
+
+    /**
+     * Estimates the quality of a page of the given file, decoded subsampled.
+     * @param pageIndex the page (first page is 1) or -1 for the first page
+     * @return the quality or null if ImageIO can not read the file.
+     */
+    public Quality estimate(File file, int pageIndex) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if(iis == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if(!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, false, false);
+                int index = pageIndex > 0 ? pageIndex - 1 : 0;
+                int width = reader.getWidth(index);
+                int height = reader.getHeight(index);
+                int dpi = readDpi(reader.getImageMetadata(index));
+                int step = Math.max(1, (Math.max(width, height) + ANALYSIS_SIZE - 1) / ANALYSIS_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return measure(reader.read(index, param), width, dpi);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    /**
+     * Estimates the quality of the given image.
+     * @param dpi resolution of the image or 0 if unknown
+     */
+    public Quality estimate(RenderedImage img, int dpi) {
+        BufferedImage image = ImageNormalizer.toBufferedImage(img);
+        int step = Math.max(1, (Math.max(image.getWidth(), image.getHeight()) + ANALYSIS_SIZE - 1) / ANALYSIS_SIZE);
+        return measure(step == 1 ? image : BlankPageFilter.subsample(image, step), image.getWidth(), dpi);
+    }
+
+    Quality measure(BufferedImage sample, int fullWidth, int dpi) {
+        int width = sample.getWidth();
+        int height = sample.getHeight();
+        byte[] gray = ImageNormalizer.graySamples(ImageNormalizer.toGray(sample));
+
+        int[] histogram = new int[256];
+        for(byte b : gray) {
+            histogram[b & 0xFF]++;
+        }
+        int contrast = percentile(histogram, gray.length, 0.95) - percentile(histogram, gray.length, 0.05);
+
+        double sum = 0;
+        double squareSum = 0;
+        long n = 0;
+        for(int y = 1; y < height - 1; y++) {
+            for(int x = 1; x < width - 1; x++) {
+                int p = y * width + x;
+                int laplacian = (gray[p - 1] & 0xFF) + (gray[p + 1] & 0xFF) + (gray[p - width] & 0xFF) + (gray[p + width] & 0xFF)
+                    - 4 * (gray[p] & 0xFF);
+                sum += laplacian;
+                squareSum += (double) laplacian * laplacian;
+                n++;
+            }
+        }
+        double sharpness = n == 0 ? 0 : squareSum / n - (sum / n) * (sum / n);
+
+        boolean fromMetadata = dpi > 0;
+        int effectiveDpi = fromMetadata ? dpi : (int) Math.round(fullWidth / assumedPageWidthInches);
+        return new Quality(sharpness, contrast, effectiveDpi, fromMetadata);
+    }
+
+    static int percentile(int[] histogram, int total, double fraction) {
+        long target = (long) Math.ceil(total * fraction);
+        long count = 0;
+        for(int i = 0; i < 256; i++) {
+            count += histogram[i];
+            if(count >= target) {
+                return i;
+            }
+        }
+        return 255;
+    }
+
+    /** Reads the horizontal resolution from the standard metadata; 0 if absent or implausible. */
+    static int readDpi(IIOMetadata metadata) {
+        if(metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+            return 0;
+        }
+        Node root = metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+        for(Node dimension = root.getFirstChild(); dimension != null; dimension = dimension.getNextSibling()) {
+            if(!"Dimension".equals(dimension.getNodeName())) {
+                continue;
+            }
+            for(Node node = dimension.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if("HorizontalPixelSize".equals(node.getNodeName()) && node instanceof Element) {
+                    try {
+                        double millimetersPerPixel = Double.parseDouble(((Element) node).getAttribute("value"));
+                        int dpi = (int) Math.round(25.4 / millimetersPerPixel);
+                        return dpi >= 50 && dpi <= 4800 ? dpi : 0;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    public double getAssumedPageWidthInches() {
+        return assumedPageWidthInches;
+    }
+
+    /** Sets the page width assumed to estimate the DPI of images without resolution metadata; default 8.5 inches. */
+    public void setAssumedPageWidthInches(double inches) {
+        if(inches <= 0) {
+            throw new IllegalArgumentException("Invalid page width: " + inches);
+        }
+        this.assumedPageWidthInches = inches;
+    }
+}
@@ -0,0 +1,139 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import com.asprise.ocr.Ocr;
+import com.asprise.ocr.OcrException;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Combines results of separately recognized inputs or pages into the result of a single recognition.
+ */
+public class OcrResultMerger {
+
+    static final String ROOT_END = "</asprise-ocr>";
+    static final Pattern ROOT_START = Pattern.compile("<asprise-ocr\\b[^>]*>");
+    static final Pattern PAGE_NO = Pattern.compile("(<page\\b[^>]*?\\bno=\")(\\d+)(\")");
+    static final Pattern COORDINATE = Pattern.compile("(\\s)(x|y)=\"(-?\\d+)\"");
+    static final Pattern GEOMETRY = Pattern.compile("(\\s)(x|y|width|height)=\"(-?\\d+)\"");
+
+    /** Returns true if results in the given output format can be merged: plain text and xml. */
+    public static boolean canMerge(String outputFormat) {
+        return Ocr.OUTPUT_FORMAT_PLAINTEXT.equals(outputFormat) || Ocr.OUTPUT_FORMAT_XML.equals(outputFormat);
+    }
+
+    /**
+     * Merges results in order: plain text is concatenated on separate lines; xml pages are put under the root element
+     * of the first result and renumbered from 1. Null results are skipped.
+     */
+    public static String merge(List<String> results, String outputFormat) {
+        if(Ocr.OUTPUT_FORMAT_XML.equals(outputFormat)) {
+            return mergeXml(results);
+        } else if(Ocr.OUTPUT_FORMAT_PLAINTEXT.equals(outputFormat)) {
+            return mergeText(results);
+        }
+        throw new IllegalArgumentException("Results in format " + outputFormat + " can not be merged.");
+    }
+
+    /**
+     * Shifts the x and y coordinates in the given xml result, e.g., to make coordinates of a region recognized on its
+     * own relative to the page.
+     */
+    public static String translateXml(String xml, int dx, int dy) {
+        if(xml == null || (dx == 0 && dy == 0)) {
+            return xml;
+        }
+        Matcher m = COORDINATE.matcher(xml);
+        StringBuffer sb = new StringBuffer(xml.length() + 64);
+        while(m.find()) {
+            int value = Integer.parseInt(m.group(3)) + ("x".equals(m.group(2)) ? dx : dy);
+            m.appendReplacement(sb, "$1$2=\"" + value + "\"");
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Scales the coordinates and sizes in the given xml result, e.g., to make coordinates of an image downscaled before
+     * recognition relative to the original image.
+     */
+    public static String scaleXml(String xml, double sx, double sy) {
+        if(xml == null || (sx == 1 && sy == 1)) {
+            return xml;
+        }
+        Matcher m = GEOMETRY.matcher(xml);
+        StringBuffer sb = new StringBuffer(xml.length() + 64);
+        while(m.find()) {
+            boolean horizontal = "x".equals(m.group(2)) || "width".equals(m.group(2));
+            long value = Math.round(Integer.parseInt(m.group(3)) * (horizontal ? sx : sy));
+            m.appendReplacement(sb, "$1$2=\"" + value + "\"");
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    static String mergeText(List<String> results) {
+        StringBuilder sb = null;
+        for(String result : results) {
+            if(result == null) {
+                continue;
+            }
+            if(sb == null) {
+                sb = new StringBuilder(result);
+            } else {
+                if(sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n') {
+                    sb.append('\n');
+                }
+                sb.append(result);
+            }
+        }
+        return sb == null ? null : sb.toString();
+    }
+
+    static String mergeXml(List<String> results) {
+        String head = null;
+        StringBuilder body = new StringBuilder();
+        String tail = null;
+        int pageNo = 0;
+        for(String result : results) {
+            if(result == null) {
+                continue;
+            }
+            Matcher start = ROOT_START.matcher(result);
+            int end = result.lastIndexOf(ROOT_END);
+            if(!start.find() || end < start.end()) {
+                throw new OcrException("Unexpected OCR xml output: no asprise-ocr element");
+            }
+            if(head == null) {
+                head = result.substring(0, start.end());
+                tail = result.substring(end);
+            }
+            Matcher page = PAGE_NO.matcher(result.substring(start.end(), end));
+            StringBuffer renumbered = new StringBuffer();
+            while(page.find()) {
+                page.appendReplacement(renumbered, "$1" + (++pageNo) + "$3");
+            }
+            page.appendTail(renumbered);
+            body.append(renumbered);
+        }
+        return head == null ? null : head + body + tail;
+    }
+}
@@ -0,0 +1,317 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import com.asprise.ocr.OcrException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.awt.Rectangle;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits a large image into overlapping tiles and stitches the xml results of the tiles back into one page.
+ * <p>Each tile owns the part of the image closer to it than to its neighbours, i.e., its area minus half of the
+ * overlap on each inner side; the owned areas of all tiles partition the image. When stitching, an element found in a
+ * tile is kept only if its center lies in the area owned by that tile; this is decided for the smallest elements
+ * carrying coordinates, i.e., words when the result has them, and lines and blocks are kept with the words they
+ * still contain. Text in the overlap bands, recognized by two or four tiles, is thus kept once, while a block crossing
+ * a tile boundary is kept as two partial blocks. The overlap should be larger than the tallest line of text so that every line is
+ * whole in at least one tile.</p>
+ */
+public class OcrTiles {
+
+    /** A tile of an image. */
+    public static class Tile {
+        final Rectangle region;
+        final Rectangle owned;
+
+        Tile(Rectangle region, Rectangle owned) {
+            this.region = region;
+            this.owned = owned;
+        }
+
+        /** Area of the image to recognize. */
+        public Rectangle getRegion() {
+            return region;
+        }
+
+        /** Area of the image whose recognized elements this tile contributes. */
+        public Rectangle getOwned() {
+            return owned;
+        }
+
+        @Override
+        public String toString() {
+            return "Tile " + region.x + "," + region.y + "," + region.width + "," + region.height;
+        }
+    }
+
+    /**
+     * Computes the tiles, in row-major order, covering an image of the given size.
+     * @param width image width
+     * @param height image height
+     * @param tileSize max width and height of a tile
+     * @param overlap width of the band shared by adjacent tiles; less than tileSize
+     */
+    public static List<Tile> layout(int width, int height, int tileSize, int overlap) {
+        if(width <= 0 || height <= 0 || overlap < 0 || tileSize <= overlap) {
+            throw new IllegalArgumentException("Invalid tiling: image " + width + "x" + height + ", tile size " + tileSize + ", overlap " + overlap);
+        }
+        int[] xs = starts(width, tileSize, overlap);
+        int[] ys = starts(height, tileSize, overlap);
+        List<Tile> tiles = new ArrayList<Tile>(xs.length * ys.length);
+        for(int j = 0; j < ys.length; j++) {
+            for(int i = 0; i < xs.length; i++) {
+                int x = xs[i];
+                int y = ys[j];
+                int w = Math.min(tileSize, width - x);
+                int h = Math.min(tileSize, height - y);
+                int ownedX = i == 0 ? 0 : x + overlap / 2;
+                int ownedY = j == 0 ? 0 : y + overlap / 2;
+                int ownedRight = i == xs.length - 1 ? width : xs[i + 1] + overlap / 2;
+                int ownedBottom = j == ys.length - 1 ? height : ys[j + 1] + overlap / 2;
+                tiles.add(new Tile(new Rectangle(x, y, w, h), new Rectangle(ownedX, ownedY, ownedRight - ownedX, ownedBottom - ownedY)));
+            }
+        }
+        return tiles;
+    }
+
+    static int[] starts(int length, int tileSize, int overlap) {
+        int step = tileSize - overlap;
+        int count = length <= tileSize ? 1 : 1 + (length - tileSize + step - 1) / step;
+        int[] starts = new int[count];
+        for(int i = 0; i < count; i++) {
+            starts[i] = i * step;
+        }
+        return starts;
+    }
+
+    /**
+     * Stitches the xml results of the given tiles into the result of the whole image. Coordinates are translated to
+     * the image; the page of the first result is kept with its size set to the image size.
+     * @param results xml result of each tile, in the same order as tiles
+     * @param tiles the tiles
+     * @param width image width
+     * @param height image height
+     */
+    public static String stitchXml(List<String> results, List<Tile> tiles, int width, int height) {
+        Document stitched = null;
+        Element stitchedPage = null;
+        for(int t = 0; t < tiles.size(); t++) {
+            Document doc = parse(results.get(t));
+            Element page = firstChildElement(doc.getDocumentElement(), "page");
+            if(page == null) {
+                continue;
+            }
+            Tile tile = tiles.get(t);
+            if(stitched == null) {
+                stitched = doc;
+                stitchedPage = page;
+                stitchedPage.setAttribute("width", String.valueOf(width));
+                stitchedPage.setAttribute("height", String.valueOf(height));
+            }
+            for(Element element : childElements(page)) {
+                translate(element, tile.region.x, tile.region.y);
+                if(!keepOwned(element, tile.owned)) {
+                    page.removeChild(element);
+                } else if(page != stitchedPage) {
+                    stitchedPage.appendChild(stitched.importNode(element, true));
+                }
+            }
+        }
+        return stitched == null ? null : serialize(stitched);
+    }
+
+    /**
+     * Returns the text of an xml result in reading order: blocks top to bottom, then left to right; each line of a block
+     * on its own line with its words separated by a space.
+     */
+    public static String xmlToText(String xml) {
+        Document doc = parse(xml);
+        List<Element> elements = new ArrayList<Element>();
+        for(Element page : childElements(doc.getDocumentElement())) {
+            elements.addAll(childElements(page));
+        }
+        Collections.sort(elements, new Comparator<Element>() {
+            @Override
+            public int compare(Element a, Element b) {
+                int dy = intAttribute(a, "y") - intAttribute(b, "y");
+                return dy != 0 ? dy : intAttribute(a, "x") - intAttribute(b, "x");
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        for(Element element : elements) {
+            NodeList lines = element.getElementsByTagName("line");
+            if(lines.getLength() == 0) {
+                appendLine(sb, element);
+            }
+            for(int i = 0; i < lines.getLength(); i++) {
+                appendLine(sb, (Element) lines.item(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Appends the words of the line, or the text of the element if it has no words, as a line. */
+    static void appendLine(StringBuilder sb, Element element) {
+        NodeList words = element.getElementsByTagName("word");
+        StringBuilder text = new StringBuilder();
+        if(words.getLength() == 0) {
+            text.append(element.getTextContent().trim().replaceAll("\\s*\\n\\s*", "\n"));
+        }
+        for(int i = 0; i < words.getLength(); i++) {
+            String word = words.item(i).getTextContent().trim();
+            if(word.length() > 0) {
+                if(text.length() > 0) {
+                    text.append(' ');
+                }
+                text.append(word);
+            }
+        }
+        if(text.length() > 0) {
+            sb.append(text).append('\n');
+        }
+    }
+
+    /**
+     * Removes the parts of the element not owned by the tile and returns true if anything is left. Elements without
+     * children carrying coordinates, e.g., words, are kept if their center is owned; others, e.g., blocks and lines,
+     * are kept if any of those children is kept and their bounds are shrunk to the children kept.
+     */
+    static boolean keepOwned(Element element, Rectangle owned) {
+        List<Element> located = new ArrayList<Element>();
+        for(Element child : childElements(element)) {
+            if(hasCoordinates(child)) {
+                located.add(child);
+            }
+        }
+        if(located.isEmpty()) {
+            return isOwned(element, owned);
+        }
+        Rectangle bounds = null;
+        for(Element child : located) {
+            if(!keepOwned(child, owned)) {
+                element.removeChild(child);
+                continue;
+            }
+            Rectangle r = new Rectangle(intAttribute(child, "x"), intAttribute(child, "y"), intAttribute(child, "width"), intAttribute(child, "height"));
+            bounds = bounds == null ? r : bounds.union(r);
+        }
+        if(bounds == null) {
+            return false;
+        }
+        if(hasCoordinates(element)) {
+            element.setAttribute("x", String.valueOf(bounds.x));
+            element.setAttribute("y", String.valueOf(bounds.y));
+            element.setAttribute("width", String.valueOf(bounds.width));
+            element.setAttribute("height", String.valueOf(bounds.height));
+        }
+        return true;
+    }
+
+    static boolean hasCoordinates(Element element) {
+        return element.hasAttribute("x") && element.hasAttribute("y");
+    }
+
+    /** Elements without coordinates are kept by the first tile only. */
+    static boolean isOwned(Element element, Rectangle owned) {
+        if(!element.hasAttribute("x") || !element.hasAttribute("y")) {
+            return owned.x == 0 && owned.y == 0;
+        }
+        int centerX = intAttribute(element, "x") + intAttribute(element, "width") / 2;
+        int centerY = intAttribute(element, "y") + intAttribute(element, "height") / 2;
+        return owned.contains(centerX, centerY);
+    }
+
+    static void translate(Element element, int dx, int dy) {
+        if(element.hasAttribute("x")) {
+            element.setAttribute("x", String.valueOf(intAttribute(element, "x") + dx));
+        }
+        if(element.hasAttribute("y")) {
+            element.setAttribute("y", String.valueOf(intAttribute(element, "y") + dy));
+        }
+        for(Element child : childElements(element)) {
+            translate(child, dx, dy);
+        }
+    }
+
+    static int intAttribute(Element element, String name) {
+        String value = element.getAttribute(name);
+        try {
+            return value.length() == 0 ? 0 : (int) Math.round(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static List<Element> childElements(Element parent) {
+        List<Element> elements = new ArrayList<Element>();
+        for(Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if(node instanceof Element) {
+                elements.add((Element) node);
+            }
+        }
+        return elements;
+    }
+
+    static Element firstChildElement(Element parent, String name) {
+        for(Element element : childElements(parent)) {
+            if(name.equals(element.getTagName())) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    static Document parse(String xml) {
+        try {
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            return builder.parse(new InputSource(new StringReader(xml)));
+        } catch (Exception e) {
+            throw new OcrException("Unexpected OCR xml output: " + e.getMessage(), e);
+        }
+    }
+
+    static String serialize(Document doc) {
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            StringWriter writer = new StringWriter();
+            transformer.transform(new DOMSource(doc), new StreamResult(writer));
+            return writer.toString();
+        } catch (Exception e) {
+            throw new OcrException("Failed to write stitched xml: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import com.asprise.ocr.OcrException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Temporary files used to hand images over to the native engine.
+ * <p>Files are placed in a memory-backed directory (<code>/dev/shm</code>) when available so that a handoff costs no
+ * block I/O. The bytes held there are limited by a budget; once it is used up, new files spill over to the regular
+ * temp folder. The expected size of a file is reserved against the budget when it is created, so that concurrent
+ * handoffs can not overrun the budget together, and corrected to its actual size once it is written. Callers delete
+ * files in a <code>finally</code> block:</p>
+ * <pre>File file = arena.createTempFile(".png", expectedBytes);
+ * try {
+ *     ImageIO.write(img, "png", file);
+ *     arena.track(file);
+ *     return ocr.recognize(file.getAbsolutePath(), ...);
+ * } finally {
+ *     arena.delete(file);
+ * }</pre>
+ */
+public class TempFileArena {
+
+    /** Default max bytes held in the memory-backed directory; can be changed with system property <code>ocr.temp.arena.bytes</code>. */
+    public static final long DEFAULT_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    static final String FILE_PREFIX = "ocr-";
+
+    static volatile TempFileArena defaultArena;
+
+    final File dir;
+    final File spillDir;
+    volatile long budgetBytes;
+
+    final AtomicLong usedBytes = new AtomicLong();
+    final AtomicLong spilledCount = new AtomicLong();
+    /** Bytes accounted for each file in {@linkplain #dir}. */
+    final ConcurrentHashMap<File, Long> trackedFiles = new ConcurrentHashMap<File, Long>();
+
+    /**
+     * @param dir directory to create files in, preferably memory-backed; null if there is no writable directory
+     * @param spillDir directory to create files in once the budget is used up; null to never spill
+     * @param budgetBytes max bytes held in dir
+     */
+    public TempFileArena(File dir, File spillDir, long budgetBytes) {
+        if(budgetBytes < 0) {
+            throw new IllegalArgumentException("Invalid budget: " + budgetBytes);
+        }
+        this.dir = dir;
+        this.spillDir = spillDir;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /** The shared arena: /dev/shm if writable, the writable temp folder otherwise. */
+    public static TempFileArena getDefault() {
+        if(defaultArena == null) {
+            synchronized (TempFileArena.class) {
+                if(defaultArena == null) {
+                    File spillDir = Utils.getTempFolderWritable();
+                    File shm = new File("/dev/shm");
+                    File dir = !Utils.isWindows() && shm.isDirectory() && Utils.testCreateFileInside(shm) ? shm : spillDir;
+                    long budget = DEFAULT_BUDGET_BYTES;
+                    try {
+                        budget = Long.parseLong(System.getProperty("ocr.temp.arena.bytes", String.valueOf(DEFAULT_BUDGET_BYTES)));
+                    } catch (NumberFormatException e) {
+                        // default
+                    }
+                    defaultArena = new TempFileArena(dir, spillDir, budget);
+                }
+            }
+        }
+        return defaultArena;
+    }
+
+    /**
+     * Creates a new empty file of unknown size with a unique name. See {@linkplain #createTempFile(String, long)}.
+     */
+    public File createTempFile(String suffix) throws IOException {
+        return createTempFile(suffix, 0);
+    }
+
+    /**
+     * Creates a new empty file with a unique name; in the memory-backed directory if the expected size fits in its
+     * budget, in the spill directory otherwise.
+     * @param suffix file name suffix, e.g., ".png"; the native engine detects some formats by extension.
+     * @param expectedBytes expected size of the file, reserved until {@linkplain #track(File)}; 0 if unknown
+     * @throws OcrException if there is no writable temporary directory
+     */
+    public File createTempFile(String suffix, long expectedBytes) throws IOException {
+        if(dir == null) {
+            throw new OcrException("Unable to find temporary dir");
+        }
+        if(spillDir == null || dir.equals(spillDir)) {
+            File file = File.createTempFile(FILE_PREFIX, suffix, dir);
+            trackedFiles.put(file, 0L);
+            return file;
+        }
+        long reserved = Math.max(expectedBytes, 0);
+        if(reserve(reserved)) {
+            File file;
+            try {
+                file = File.createTempFile(FILE_PREFIX, suffix, dir);
+            } catch (IOException e) {
+                usedBytes.addAndGet(-reserved);
+                throw e;
+            }
+            trackedFiles.put(file, reserved);
+            return file;
+        }
+        spilledCount.incrementAndGet();
+        return File.createTempFile(FILE_PREFIX, suffix, spillDir);
+    }
+
+    /**
+     * Copies the stream, which is read to its end but not closed, into a new file with a unique name. Its bytes are
+     * reserved against the budget as they are copied; once the budget is used up, the bytes copied so far move to a
+     * file in the spill directory and the rest of the stream goes there. The file is tracked once written.
+     * @param in stream of unknown length
+     * @param suffix file name suffix, e.g., ".png"; the native engine detects some formats by extension.
+     * @throws OcrException if there is no writable temporary directory
+     */
+    public File copyToTempFile(InputStream in, String suffix) throws IOException {
+        File file = createTempFile(suffix, 0);
+        boolean budgeted = spillDir != null && !dir.equals(spillDir) && trackedFiles.containsKey(file);
+        boolean completed = false;
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while((n = in.read(buffer)) > 0) {
+                    if(budgeted && !reserveMore(file, n)) {
+                        out.close();
+                        File spilled = spill(file, suffix);
+                        delete(file);
+                        file = spilled;
+                        budgeted = false;
+                        out = new FileOutputStream(file, true);
+                    }
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+            track(file);
+            completed = true;
+            return file;
+        } finally {
+            if(!completed) {
+                delete(file);
+            }
+        }
+    }
+
+    /** Copies a file of the arena directory to a new file in the spill directory. */
+    File spill(File file, String suffix) throws IOException {
+        File spilled = File.createTempFile(FILE_PREFIX, suffix, spillDir);
+        spilledCount.incrementAndGet();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileOutputStream out = new FileOutputStream(spilled);
+            try {
+                in.getChannel().transferTo(0, file.length(), out.getChannel());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            delete(spilled);
+            throw e;
+        } finally {
+            in.close();
+        }
+        return spilled;
+    }
+
+    /** Adds the given bytes to the reservation of a file being written if they fit in the budget. */
+    boolean reserveMore(File file, long bytes) {
+        Long reserved = trackedFiles.get(file);
+        if(reserved == null || !reserve(bytes)) {
+            return false;
+        }
+        trackedFiles.put(file, reserved + bytes);
+        return true;
+    }
+
+    /** Adds the given bytes to the used bytes if the result is within budget; a file of unknown size needs 1 byte left. */
+    boolean reserve(long bytes) {
+        while(true) {
+            long used = usedBytes.get();
+            if(used + Math.max(bytes, 1) > budgetBytes) {
+                return false;
+            }
+            if(usedBytes.compareAndSet(used, used + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Accounts the current size of a file created by this arena against the budget instead of its expected size; call
+     * once it is written.
+     */
+    public void track(File file) {
+        Long previous = trackedFiles.get(file);
+        if(previous == null) {
+            return; // spilled
+        }
+        long size = file.length();
+        if(trackedFiles.replace(file, previous, size)) {
+            usedBytes.addAndGet(size - previous);
+        }
+    }
+
+    /** Deletes a file created by this arena and releases its bytes; null is ignored. */
+    public void delete(File file) {
+        if(file == null) {
+            return;
+        }
+        Long size = trackedFiles.remove(file);
+        if(size != null) {
+            usedBytes.addAndGet(-size);
+        }
+        if(!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /** Directory files are created in while within budget. */
+    public File getDirectory() {
+        return dir;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public void setBudgetBytes(long budgetBytes) {
+        if(budgetBytes < 0) {
+            throw new IllegalArgumentException("Invalid budget: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    /** Bytes currently held by files in the arena directory. */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /** Number of files created in the spill directory because the budget was used up. */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /** Number of files in the arena directory not deleted yet. */
+    public int getFileCount() {
+        return trackedFiles.size();
+    }
+}
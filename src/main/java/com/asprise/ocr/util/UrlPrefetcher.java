@@ -0,0 +1,272 @@
+/**********************************************************************************************
+ *
+ * Asprise OCR Java API
+ * Copyright (C) 1998-2015. Asprise Inc. <asprise.com>
+ *
+ * This file is licensed under the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * You should have received a copy of the GNU Affero General Public License.  If not, please
+ * visit <http://www.gnu.org/licenses/agpl-3.0.html>.
+ *
+ **********************************************************************************************/
+package com.asprise.ocr.util;
+
+import com.asprise.ocr.OcrException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Downloads URL inputs concurrently into the {@linkplain TempFileArena} ahead of recognition.
+ * <p>Downloads run on a bounded number of daemon threads with connect and read timeouts, an overall deadline and a
+ * size cap; the caller
+ * takes the files in order as they become available, so recognition of the first input overlaps the download of the
+ * others. <code>file:</code> URLs are used in place without copying.</p>
+ */
+public class UrlPrefetcher {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+    public static final long DEFAULT_DOWNLOAD_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    public static final long DEFAULT_MAX_BYTES = 100L * 1024 * 1024;
+
+    static volatile UrlPrefetcher defaultPrefetcher;
+
+    final ThreadPoolExecutor executor;
+    final int connectTimeoutMillis;
+    final int readTimeoutMillis;
+    final long downloadTimeoutMillis;
+    final long maxBytes;
+    final TempFileArena arena;
+
+    /**
+     * Creates a prefetcher whose downloads may take up to {@linkplain #DEFAULT_DOWNLOAD_TIMEOUT_MILLIS} each.
+     * @param parallelism max number of concurrent downloads
+     * @param connectTimeoutMillis timeout to establish a connection
+     * @param readTimeoutMillis timeout of each read
+     * @param maxBytes max size of a download
+     * @param arena where downloaded files are stored
+     */
+    public UrlPrefetcher(int parallelism, int connectTimeoutMillis, int readTimeoutMillis, long maxBytes, TempFileArena arena) {
+        this(parallelism, connectTimeoutMillis, readTimeoutMillis, DEFAULT_DOWNLOAD_TIMEOUT_MILLIS, maxBytes, arena);
+    }
+
+    /**
+     * @param parallelism max number of concurrent downloads
+     * @param connectTimeoutMillis timeout to establish a connection
+     * @param readTimeoutMillis timeout of each read
+     * @param downloadTimeoutMillis max time of a whole download, checked between reads; a server sending slowly enough
+     *                              to beat the read timeout is cut off once this is exceeded
+     * @param maxBytes max size of a download
+     * @param arena where downloaded files are stored
+     */
+    public UrlPrefetcher(int parallelism, int connectTimeoutMillis, int readTimeoutMillis, long downloadTimeoutMillis, long maxBytes, TempFileArena arena) {
+        if(parallelism < 1 || connectTimeoutMillis < 0 || readTimeoutMillis < 0 || downloadTimeoutMillis <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid prefetch settings");
+        }
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("ocr-url-prefetch", true));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.downloadTimeoutMillis = downloadTimeoutMillis;
+        this.maxBytes = maxBytes;
+        this.arena = arena;
+    }
+
+    /** The prefetcher used by {@linkplain com.asprise.ocr.Ocr#recognize(URL[], String, String, Object...)}. */
+    public static UrlPrefetcher getDefault() {
+        if(defaultPrefetcher == null) {
+            synchronized (UrlPrefetcher.class) {
+                if(defaultPrefetcher == null) {
+                    defaultPrefetcher = new UrlPrefetcher(DEFAULT_PARALLELISM, DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                        DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_BYTES, TempFileArena.getDefault());
+                }
+            }
+        }
+        return defaultPrefetcher;
+    }
+
+    /** Replaces the default prefetcher, e.g., to change timeouts; the previous one is shut down. */
+    public static synchronized void setDefault(UrlPrefetcher prefetcher) {
+        UrlPrefetcher previous = defaultPrefetcher;
+        defaultPrefetcher = prefetcher;
+        if(previous != null && previous != prefetcher) {
+            previous.executor.shutdown();
+        }
+    }
+
+    /**
+     * Starts fetching all the given URLs; the returned list is in the same order. Every element must be released
+     * with {@linkplain Prefetch#release()}, typically in a finally block.
+     */
+    public List<Prefetch> prefetch(URL[] urls) {
+        List<Prefetch> prefetches = new ArrayList<Prefetch>();
+        boolean started = false;
+        try {
+            for(int i = 0; urls != null && i < urls.length; i++) {
+                Prefetch prefetch = new Prefetch(urls[i]);
+                prefetches.add(prefetch);
+                if("file".equalsIgnoreCase(urls[i].getProtocol())) {
+                    prefetch.run(); // in place
+                } else {
+                    executor.execute(prefetch);
+                }
+            }
+            started = true;
+            return prefetches;
+        } finally {
+            if(!started) { // e.g., rejected after shutdown; nobody else will release the fetches started so far
+                for(Prefetch prefetch : prefetches) {
+                    prefetch.release();
+                }
+            }
+        }
+    }
+
+    File download(URL url) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(downloadTimeoutMillis);
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        InputStream in = connection.getInputStream();
+        File file = null;
+        boolean completed = false;
+        try {
+            long length = connection.getContentLength();
+            if(length > maxBytes) {
+                throw new IOException("Size of " + url + " (" + length + " bytes) exceeds the limit of " + maxBytes + " bytes");
+            }
+            String ext = Utils.getFileExtensionWithoutDot(url.getPath());
+            file = arena.createTempFile(ext.matches("[A-Za-z0-9]{1,4}") ? "." + ext : ".tmp", Math.max(length, 0));
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                long total = 0;
+                int n;
+                while((n = in.read(buffer)) > 0) {
+                    total += n;
+                    if(total > maxBytes) {
+                        throw new IOException("Size of " + url + " exceeds the limit of " + maxBytes + " bytes");
+                    }
+                    if(System.nanoTime() - deadline > 0) {
+                        throw new IOException("Download of " + url + " exceeds the limit of " + downloadTimeoutMillis + " ms");
+                    }
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+            arena.track(file);
+            completed = true;
+            return file;
+        } finally {
+            in.close();
+            if(!completed) {
+                arena.delete(file);
+            }
+        }
+    }
+
+    static File toLocalFile(URL url) throws IOException {
+        File file;
+        try {
+            file = new File(url.toURI());
+        } catch (Exception e) { // e.g., unescaped spaces
+            file = new File(URLDecoder.decode(url.getPath(), "UTF-8"));
+        }
+        if(!file.isFile()) {
+            throw new IOException("File not found: " + file);
+        }
+        return file;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    static final File RELEASED = new File("");
+
+    /** A URL being fetched. */
+    public class Prefetch extends FutureTask<File> {
+        final URL url;
+        final boolean local;
+        /** The downloaded file once fetched; {@linkplain #RELEASED} once released. */
+        final AtomicReference<File> fetched = new AtomicReference<File>();
+
+        Prefetch(final URL url) {
+            super(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    return null; // see run()
+                }
+            });
+            this.url = url;
+            this.local = "file".equalsIgnoreCase(url.getProtocol());
+        }
+
+        @Override
+        public void run() {
+            if(isDone()) {
+                return;
+            }
+            try {
+                File file = local ? toLocalFile(url) : download(url);
+                if(!local && !fetched.compareAndSet(null, file)) {
+                    arena.delete(file); // released meanwhile
+                    return;
+                }
+                set(file);
+            } catch (Throwable t) {
+                setException(t);
+            }
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        /** Waits for the fetch to complete and returns the local file. */
+        public File getFile() {
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OcrException("Interrupted while fetching " + url, e);
+            } catch (ExecutionException e) {
+                throw new OcrException("Failed to fetch " + url + ": " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        /** Cancels the fetch if still pending and deletes the downloaded file. */
+        public void release() {
+            cancel(false);
+            executor.remove(this);
+            File file = fetched.getAndSet(RELEASED);
+            if(file != null && file != RELEASED) {
+                arena.delete(file);
+            }
+        }
+    }
+}
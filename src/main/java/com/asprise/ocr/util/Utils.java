@@ -394,8 +394,46 @@ public class Utils {
     
     public static void saveToFile(URL url, File target) throws IOException {
         ReadableByteChannel rbc = Channels.newChannel(url.openStream());
-        FileOutputStream output = new FileOutputStream(target);
-        output.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
+        try {
+            FileOutputStream output = new FileOutputStream(target);
+            try {
+                output.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
+            } finally {
+                output.close();
+            }
+        } finally {
+            rbc.close();
+        }
+    }
+
+    /** Resident set size of the current process in bytes, read from /proc/self/status; -1 if not available. */
+    public static long getResidentSetSize() {
+        File status = new File("/proc/self/status");
+        if(! status.canRead()) {
+            return -1;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(status)));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if(line.startsWith("VmRSS:")) { // e.g., "VmRSS:	  123456 kB"
+                    String[] parts = StringUtils.split(line.substring("VmRSS:".length()), null);
+                    return Long.parseLong(parts[0]) * 1024;
+                }
+            }
+            return -1;
+        } catch (Throwable t) {
+            return -1;
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
     }
 
     static int isLaptop = Integer.MIN_VALUE;